@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic resource trees for the benchmarks.
+ */
+final class Corpus {
+    private Corpus() {}
+
+    /**
+     * Creates {@code libs} tag libraries under {@code root/lib}, each with {@code tags} tag files
+     * that document a few attributes.
+     */
+    static void taglibs(File root, int libs, int tags) throws IOException {
+        for (int l = 0; l < libs; l++) {
+            File dir = new File(root, "lib/taglib" + l);
+            dir.mkdirs();
+            write(new File(dir, "taglib"), "Tag library " + l);
+            for (int t = 0; t < tags; t++) {
+                try (PrintWriter w = writer(new File(dir, "tag" + t + ".jelly"))) {
+                    w.println("<?jelly escape-by-default='true'?>");
+                    w.println("<j:jelly xmlns:j='jelly:core' xmlns:st='jelly:stapler' xmlns:d='jelly:define'>");
+                    w.println("  <st:documentation>");
+                    w.println("    Documentation of tag " + t + " in library " + l + ".");
+                    for (int a = 0; a < 5; a++) {
+                        String use = a == 0 ? "required" : "optional";
+                        w.println("    <st:attribute name='attr" + a + "' use='" + use + "'>");
+                        w.println("      Attribute " + a);
+                        w.println("    </st:attribute>");
+                    }
+                    w.println("  </st:documentation>");
+                    for (int i = 0; i < 20; i++) {
+                        w.println("  <div class='row" + i + "'>");
+                        w.println("    <j:if test='${attrs.attr" + (i % 5) + "}'>${it}</j:if>");
+                        w.println("  </div>");
+                    }
+                    if (t % 2 == 0) {
+                        w.println("  <d:invokeBody/>");
+                    }
+                    w.println("</j:jelly>");
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates {@code views} Jelly views, each using {@code expressions} localized messages,
+     * half of them in text and half in attributes.
+     */
+    static void views(File root, int views, int expressions) throws IOException {
+        for (int v = 0; v < views; v++) {
+            File dir = new File(root, "views/model" + (v % 50));
+            dir.mkdirs();
+            try (PrintWriter w = writer(new File(dir, "view" + v + ".jelly"))) {
+                w.println("<j:jelly xmlns:j='jelly:core' xmlns:l='/lib/layout' xmlns:f='/lib/form'>");
+                w.println("  <l:layout title='${%Title}'>");
+                for (int k = 0; k < expressions; k++) {
+                    if (k % 2 == 0) {
+                        w.println("    <p>${%Message number " + k + "} and ${it.name} ${%Args(it.a, it.b)}</p>");
+                    } else {
+                        w.println("    <f:entry title=\"${%Entry " + k + "}\" help=\"${h.help('%Help " + k + "')}\"/>");
+                    }
+                }
+                w.println("  </l:layout>");
+                w.println("</j:jelly>");
+            }
+        }
+    }
+
+    /**
+     * Creates {@code dirs} directories of message bundles, each with a default bundle of {@code keys} keys
+     * and a bundle for each of {@code locales} locales that translates part of them.
+     */
+    static void bundles(File root, int dirs, int locales, int keys) throws IOException {
+        for (int d = 0; d < dirs; d++) {
+            File dir = new File(root, "bundles/pkg" + (d % 20) + "/sub" + d);
+            dir.mkdirs();
+            writeBundle(new File(dir, "Messages.properties"), keys);
+            for (int l = 0; l < locales; l++) {
+                String locale = LOCALES[l % LOCALES.length];
+                if (l >= LOCALES.length) {
+                    locale += "_X" + (char) ('A' + l / LOCALES.length); // made up variants beyond the real ones
+                }
+                writeBundle(new File(dir, "Messages_" + locale + ".properties"), keys * (l + 1) / (locales + 1));
+            }
+        }
+    }
+
+    private static void writeBundle(File f, int keys) throws IOException {
+        try (PrintWriter w = writer(f)) {
+            w.println("# generated");
+            for (int k = 0; k < keys; k++) {
+                w.println("Key" + k + ".name=Message {0} number " + k + " \\");
+                w.println("    continued \\u00e9");
+            }
+        }
+    }
+
+    private static final String[] LOCALES = {
+        "de", "es", "fr", "it", "ja", "ko", "nl", "pl", "pt_BR", "ru", "sv_SE", "tr", "uk", "zh_CN", "zh_TW"
+    };
+
+    static File createTempRoot() throws IOException {
+        return Files.createTempDirectory("stapler-benchmark").toFile();
+    }
+
+    static void delete(File root) throws IOException {
+        try (Stream<Path> s = Files.walk(root.toPath())) {
+            s.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void write(File f, String content) throws IOException {
+        Files.writeString(f.toPath(), content, StandardCharsets.UTF_8);
+    }
+
+    private static PrintWriter writer(File f) throws IOException {
+        return new PrintWriter(Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8));
+    }
+}
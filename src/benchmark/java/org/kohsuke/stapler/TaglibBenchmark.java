@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scanning of tag libraries and parsing of tag files by {@link TaglibDocMojo}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TaglibBenchmark {
+    @Param({"10"})
+    public int libs;
+
+    @Param({"50"})
+    public int tags;
+
+    private File root;
+    private TaglibDocMojo mojo;
+    private final List<File> tagFiles = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Corpus.createTempRoot();
+        Corpus.taglibs(root, libs, tags);
+
+        MavenProject project = new MavenProject();
+        project.setFile(new File(root, "pom.xml"));
+        Resource res = new Resource();
+        res.setDirectory(root.getPath());
+        project.addResource(res);
+        mojo = new TaglibDocMojo();
+        mojo.project = project;
+
+        for (int l = 0; l < libs; l++) {
+            for (int t = 0; t < tags; t++) {
+                tagFiles.add(new File(root, "lib/taglib" + l + "/tag" + t + ".jelly"));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Corpus.delete(root);
+    }
+
+    /**
+     * Walks the tree and parses every tag file.
+     */
+    @Benchmark
+    public List<TaglibDocMojo.TagLibrary> findTagLibs() throws MojoExecutionException {
+        return mojo.findTagLibs();
+    }
+
+    @Benchmark
+    public void parseTagFiles(Blackhole bh) throws IOException {
+        for (File f : tagFiles) {
+            bh.consume(TagFileExtractor.parse(f));
+        }
+    }
+}
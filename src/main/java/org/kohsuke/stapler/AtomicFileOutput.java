@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a file through a temporary file next to it, and moves it into place
+ * only if the content is different from what's already there.
+ *
+ * <p>
+ * This keeps the timestamp of unchanged output intact, so that later steps of the build
+ * don't redo their work, and readers never see a half-written file.
+ *
+ * <p>
+ * A symbolic link is written through, replacing the file it points to, and a replaced file
+ * keeps its permissions. The temporary file is named {@code .<name>.<random>.stapler-tmp},
+ * so that one left behind by a killed build is easy to tell apart and to ignore.
+ *
+ * <pre>
+ * try (AtomicFileOutput out = new AtomicFileOutput(file)) {
+ *     write(out.getStream());
+ *     out.commit();
+ * }
+ * </pre>
+ */
+final class AtomicFileOutput implements Closeable {
+    private final Path target;
+    private final Path tmp;
+    private final DigestOutputStream out;
+    private byte[] digest;
+    private boolean changed;
+
+    AtomicFileOutput(File target) throws IOException {
+        this.target = resolve(target.toPath().toAbsolutePath());
+        Path dir = this.target.getParent();
+        Files.createDirectories(dir);
+        tmp = createTemporary(dir, this.target.getFileName().toString());
+        out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), Fingerprint.newDigest());
+    }
+
+    /**
+     * Follows symbolic links, even dangling ones, so that moving the new content into place
+     * replaces the file they point to rather than the link itself.
+     */
+    private static Path resolve(Path p) throws IOException {
+        for (int i = 0; i < 40 && Files.isSymbolicLink(p); i++) {
+            p = p.resolveSibling(Files.readSymbolicLink(p)).normalize();
+        }
+        return p;
+    }
+
+    /**
+     * Creates the temporary file. Unlike {@link Files#createTempFile}, this gives a new file the permissions
+     * any other file would get rather than making it private to the owner.
+     */
+    private static Path createTemporary(Path dir, String name) throws IOException {
+        while (true) {
+            Path p = dir.resolve("." + name + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36)
+                    + ".stapler-tmp");
+            try {
+                Files.newOutputStream(p, StandardOpenOption.CREATE_NEW).close();
+                return p;
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    /**
+     * Stream to write the new content to. Closing it is harmless.
+     */
+    OutputStream getStream() {
+        return out;
+    }
+
+    /**
+     * Completes the write, and replaces the target file if its content has changed.
+     *
+     * @return
+     *      true if the target file was created or replaced, false if it already had the same content.
+     */
+    boolean commit() throws IOException {
+        out.close();
+        digest = out.getMessageDigest().digest();
+        changed = !Files.exists(target)
+                || Files.size(target) != Files.size(tmp)
+                || !Arrays.equals(digest, Fingerprint.digest(target.toFile()));
+        if (changed) {
+            copyPermissions();
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            Files.delete(tmp);
+        }
+        return changed;
+    }
+
+    /**
+     * Gives the new content the permissions of the file it replaces.
+     */
+    private void copyPermissions() throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(tmp, PosixFileAttributeView.class);
+        if (view != null && Files.exists(target)) {
+            view.setPermissions(Files.getPosixFilePermissions(target));
+        }
+    }
+
+    /**
+     * SHA-256 of the content written, available after {@link #commit()}.
+     */
+    byte[] getDigest() {
+        return digest;
+    }
+
+    boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * Discards the temporary file if {@link #commit()} wasn't called or failed.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        Files.deleteIfExists(tmp);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the strings, byte arrays and lengths the binary cache files are made of.
+ *
+ * <p>
+ * Every length read back is checked before anything is allocated for it, so that a corrupted
+ * or truncated cache file fails with an {@link IOException} that the caller can recover from,
+ * rather than with a negative size or an attempt to allocate gigabytes.
+ */
+final class BinaryIO {
+    /**
+     * Largest string, array or collection accepted by {@link #readString(DataInput)} and friends.
+     * Documentation can be long, but nowhere near this.
+     */
+    static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    private BinaryIO() {}
+
+    /**
+     * Unlike {@link DataOutput#writeUTF(String)}, this works with strings longer than 64KB,
+     * which documentation can be.
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return new String(readBytes(in, MAX_LENGTH), StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param max
+     *      Longest array that can legitimately have been written.
+     */
+    static byte[] readBytes(DataInput in, int max) throws IOException {
+        byte[] bytes = new byte[readLength(in, max)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a length or a count written with {@link DataOutput#writeInt(int)}.
+     *
+     * @param max
+     *      Largest value that can legitimately have been written.
+     * @throws IOException
+     *      if the value is negative or larger than {@code max}.
+     */
+    static int readLength(DataInput in, int max) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > max) {
+            throw new IOException("Corrupted length " + n + ", expected at most " + max);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Finds the property keys referenced from JEXL expressions in Jelly text, like {@code ${%Hello}},
+ * {@code ${%Hello(a,b)}} or {@code ${it.foo('%Hello')}}, in a single pass over the characters.
+ *
+ * <p>
+ * Text is fed in chunks through {@code scan} methods, so a key can span multiple SAX
+ * {@code characters()} callbacks, and {@link #end()} marks the end of a text block, such as
+ * an attribute value or the character data between two tags. Characters are only copied
+ * while an expression is open, and strings are only created for the keys found.
+ *
+ * <p>
+ * The results are the same as the historical regular-expression based implementation:
+ * every {@code ${} starts an expression that ends at the next <code>}</code> (so nested starts
+ * all end at the same place), and expressions are reported in the order they start.
+ * An expression that starts with '%' is a key by itself; otherwise every {@code "%...."} or
+ * {@code '%....'} string literal in it is. In either case, the parameters that follow '(' are dropped.
+ */
+final class ExpressionScanner {
+    private final Consumer<String> keys;
+
+    /**
+     * Characters since the start of the first open expression.
+     */
+    private char[] buf = new char[64];
+
+    private int len;
+
+    /**
+     * Offsets in {@link #buf} right after each open <code>${</code>, in the order they appeared.
+     */
+    private int[] starts = new int[4];
+
+    private int open;
+
+    /**
+     * True if the last character seen was '$', which starts an expression if '{' follows.
+     */
+    private boolean dollar;
+
+    /**
+     * @param keys
+     *      Receives the property keys as they are found.
+     */
+    ExpressionScanner(Consumer<String> keys) {
+        this.keys = keys;
+    }
+
+    void scan(char[] ch, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            next(ch[i]);
+        }
+    }
+
+    void scan(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            next(s.charAt(i));
+        }
+    }
+
+    /**
+     * Ends the current text block.
+     *
+     * @return
+     *      false if an expression was left without the closing <code>}</code>.
+     */
+    boolean end() {
+        boolean closed = open == 0;
+        open = 0;
+        len = 0;
+        dollar = false;
+        return closed;
+    }
+
+    private void next(char c) {
+        if (open > 0) {
+            if (c == '}') {
+                for (int i = 0; i < open; i++) {
+                    onExpression(starts[i], len);
+                }
+                open = 0;
+                len = 0;
+                dollar = false;
+                return;
+            }
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+            }
+            buf[len++] = c;
+        }
+        if (dollar && c == '{') {
+            if (open == starts.length) {
+                starts = Arrays.copyOf(starts, open * 2);
+            }
+            starts[open++] = len;
+        }
+        dollar = c == '$';
+    }
+
+    /**
+     * Found a JEXL expression in {@code buf[start,end)}.
+     */
+    private void onExpression(int start, int end) {
+        if (start < end && buf[start] == '%') {
+            onKey(start + 1, end);
+            return;
+        }
+        // look for "%...." or '%....', the same way as /("%[^"]+")|('%[^']+')/
+        int i = start;
+        while (i < end - 1) {
+            char q = buf[i];
+            if ((q == '"' || q == '\'') && buf[i + 1] == '%') {
+                int close = indexOf(q, i + 2, end);
+                if (close > i + 2) {
+                    onKey(i + 2, close);
+                    i = close + 1;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Found a key in {@code buf[start,end)}, possibly followed by parameters.
+     */
+    private void onKey(int start, int end) {
+        int op = indexOf('(', start, end);
+        keys.accept(new String(buf, start, (op >= 0 ? op : end) - start));
+    }
+
+    private int indexOf(char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Listing of the resource directories with the type, size and timestamp of every entry,
+ * shared by all the goals that run in the same Maven session, so that each directory is listed
+ * and each file is looked at only once no matter how many goals walk the same tree.
+ *
+ * <p>
+ * A tree is indexed by a single {@link Files#walkFileTree} the first time something in it is listed, reusing
+ * the attributes that come with each entry, so that nothing is looked at twice. Symbolic links are followed,
+ * except those that point back to one of their own parent directories, and the walk can be limited in depth.
+ * When a goal writes a file into an indexed tree, it calls {@link #written(MavenSession, File)} so that the directory
+ * of the file is listed again.
+ * Changes made by anything else during the session go unnoticed, which is fine as long as nobody but
+ * this plugin writes into the resource directories in the middle of a build. The site report, which
+ * {@code mvn site:run} renders again on each request of the same session, takes a new index instead.
+ *
+ * <p>
+ * All the methods can be called from multiple threads.
+ */
+final class FileTreeIndex {
+    /**
+     * Indices of each session, keyed by their {@link #maxDepth}.
+     */
+    private static final Map<MavenSession, Map<Integer, FileTreeIndex>> SESSIONS = new WeakHashMap<>();
+
+    /**
+     * Gets the index shared in the given session, or a new one if there's no session.
+     *
+     * @param maxDepth
+     *      How deep below each root to look, where 1 means only the entries directly in it.
+     *      0 or less means no limit.
+     * @param log
+     *      Receives the warnings about the directories that are skipped. Only the one given by the goal
+     *      that first gets the index is used.
+     */
+    static FileTreeIndex of(MavenSession session, int maxDepth, Log log) {
+        int depth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+        if (session == null) {
+            return new FileTreeIndex(depth, log);
+        }
+        synchronized (SESSIONS) {
+            return SESSIONS.computeIfAbsent(session, s -> new HashMap<>())
+                    .computeIfAbsent(depth, d -> new FileTreeIndex(d, log));
+        }
+    }
+
+    /**
+     * Tells the indices of the given session that the given file has been written,
+     * so that its directory is listed again.
+     */
+    static void written(MavenSession session, File file) {
+        for (FileTreeIndex index : indices(session)) {
+            index.written(file);
+        }
+    }
+
+    /**
+     * Makes the indices of the given session forget everything under the given directory,
+     * for when it may have changed in ways they can't follow.
+     */
+    static void invalidate(MavenSession session, File dir) {
+        for (FileTreeIndex index : indices(session)) {
+            index.invalidate(dir);
+        }
+    }
+
+    private static List<FileTreeIndex> indices(MavenSession session) {
+        synchronized (SESSIONS) {
+            Map<Integer, FileTreeIndex> m = session != null ? SESSIONS.get(session) : null;
+            return m != null ? new ArrayList<>(m.values()) : List.of();
+        }
+    }
+
+    /**
+     * Passed to {@link Files#walkFileTree(Path, Set, int, java.nio.file.FileVisitor)}.
+     */
+    private final int maxDepth;
+
+    private final Log log;
+
+    /**
+     * @param maxDepth
+     *      How deep below each root to look, where 1 means only the entries directly in it.
+     *      0 or less means no limit.
+     * @param log
+     *      Where to report the directories that are skipped, or null.
+     */
+    FileTreeIndex(int maxDepth, Log log) {
+        this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+        this.log = log;
+    }
+
+    /**
+     * A file or a directory in a listing. Symbolic links are followed, so that the types are the same
+     * as {@link File#isDirectory()} and {@link File#isFile()} would tell.
+     */
+    static final class Entry {
+        final File file;
+        private final Node node;
+
+        private Entry(File file, Node node) {
+            this.file = file;
+            this.node = node;
+        }
+
+        String getName() {
+            return node.name;
+        }
+
+        boolean isDirectory() {
+            return node.directory;
+        }
+
+        boolean isFile() {
+            return node.regularFile;
+        }
+
+        long length() {
+            return node.size;
+        }
+
+        long lastModified() {
+            return node.lastModified;
+        }
+    }
+
+    /**
+     * What's remembered of each entry, independent of how the path to its directory is spelled.
+     */
+    private static final class Node {
+        final String name;
+        final boolean directory;
+        final boolean regularFile;
+        final long size;
+        final long lastModified;
+
+        Node(String name, boolean directory, boolean regularFile, long size, long lastModified) {
+            this.name = name;
+            this.directory = directory;
+            this.regularFile = regularFile;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        Node(Path p, BasicFileAttributes attrs) {
+            this(
+                    p.getFileName().toString(),
+                    attrs.isDirectory(),
+                    attrs.isRegularFile(),
+                    attrs.size(),
+                    attrs.lastModifiedTime().toMillis());
+        }
+    }
+
+    private static final Comparator<Node> BY_NAME = Comparator.comparing(n -> new File(n.name));
+
+    /**
+     * Indexed trees keyed by their absolute root directories.
+     * Each maps the absolute path of every directory in it to its children, sorted by their names.
+     */
+    private final Map<Path, Map<Path, List<Node>>> trees = new ConcurrentHashMap<>();
+
+    /**
+     * Lists the given directory, in the same order as sorting {@link File#listFiles()} would.
+     *
+     * @return
+     *      null if the given file isn't a directory or can't be listed, just like {@link File#listFiles()},
+     *      or if it's deeper than the limit.
+     */
+    List<Entry> list(File dir) {
+        Path p = normalize(dir);
+        List<Node> nodes = null;
+        boolean indexed = false;
+        for (Map.Entry<Path, Map<Path, List<Node>>> t : trees.entrySet()) {
+            if (p.startsWith(t.getKey())) {
+                nodes = t.getValue().get(p);
+                indexed = true;
+                if (nodes != null) {
+                    break;
+                }
+            }
+        }
+        if (!indexed) {
+            nodes = index(p).get(p);
+        }
+        if (nodes == null) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>(nodes.size());
+        for (Node n : nodes) {
+            entries.add(new Entry(new File(dir, n.name), n));
+        }
+        return entries;
+    }
+
+    /**
+     * Walks the tree from the given directory, unless some other thread has just done so.
+     */
+    private synchronized Map<Path, List<Node>> index(Path root) {
+        Map<Path, List<Node>> tree = trees.get(root);
+        if (tree != null) {
+            return tree;
+        }
+        Map<Path, List<Node>> dirs = new ConcurrentHashMap<>();
+        try {
+            Files.walkFileTree(
+                    root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            add(dir, attrs);
+                            dirs.put(dir, new ArrayList<>());
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            // also called for the directories at the depth limit, which are then never listed
+                            add(file, attrs);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            // unreadable directory, or a link back to its ancestor. either way, it can't be listed
+                            if (log != null) {
+                                if (e instanceof FileSystemLoopException) {
+                                    log.warn("Not following " + file + " as it links back to one of its parents");
+                                } else {
+                                    log.debug("Cannot list " + file, e);
+                                }
+                            }
+                            List<Node> siblings = file.equals(root) ? null : dirs.get(file.getParent());
+                            if (siblings != null) {
+                                String name = file.getFileName().toString();
+                                siblings.add(new Node(name, Files.isDirectory(file), Files.isRegularFile(file), 0, 0));
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                            List<Node> children = dirs.get(dir);
+                            children.sort(BY_NAME);
+                            dirs.put(dir, Collections.unmodifiableList(children));
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        private void add(Path p, BasicFileAttributes attrs) {
+                            if (!p.equals(root)) {
+                                dirs.get(p.getParent()).add(new Node(p, attrs));
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // impossible, as the visitor never gives up
+        }
+        trees.put(root, dirs);
+        return dirs;
+    }
+
+    private void written(File file) {
+        Path p = normalize(file);
+        Path dir = p.getParent();
+        for (Map.Entry<Path, Map<Path, List<Node>>> t : trees.entrySet()) {
+            if (!p.startsWith(t.getKey())) {
+                continue;
+            }
+            Map<Path, List<Node>> dirs = t.getValue();
+            if (!dirs.containsKey(dir) || !relist(dir, dirs)) {
+                trees.remove(t.getKey()); // a new directory, or something else has changed. start over
+            }
+        }
+    }
+
+    /**
+     * Lists a single directory again, unless a subdirectory has been added.
+     *
+     * @return
+     *      false if the directory can't be updated on its own.
+     */
+    private boolean relist(Path dir, Map<Path, List<Node>> dirs) {
+        Set<String> subdirs = new HashSet<>();
+        for (Node n : dirs.get(dir)) {
+            if (n.directory) {
+                subdirs.add(n.name);
+            }
+        }
+        List<Node> children = new ArrayList<>();
+        try (DirectoryStream<Path> s = Files.newDirectoryStream(dir)) {
+            for (Path c : s) {
+                Node n = new Node(c, Files.readAttributes(c, BasicFileAttributes.class));
+                if (n.directory && !subdirs.contains(n.name)) {
+                    return false;
+                }
+                children.add(n);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        children.sort(BY_NAME);
+        dirs.put(dir, Collections.unmodifiableList(children));
+        return true;
+    }
+
+    private void invalidate(File dir) {
+        Path p = normalize(dir);
+        trees.keySet().removeIf(root -> root.startsWith(p) || p.startsWith(root));
+    }
+
+    private static Path normalize(File f) {
+        return f.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Size, timestamp and content hash of a file, used to tell if a file has changed since the last build.
+ *
+ * <p>
+ * Size and timestamp are compared first since they are cheap. The content hash is only
+ * consulted when they differ, so that a touched but otherwise unchanged file still counts as up to date.
+ */
+final class Fingerprint {
+    final long size;
+    final long lastModified;
+    /**
+     * SHA-256 of the file content.
+     */
+    final byte[] digest;
+
+    private static final int DIGEST_LENGTH = 32;
+
+    private Fingerprint(long size, long lastModified, byte[] digest) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.digest = digest;
+    }
+
+    /**
+     * Computes the fingerprint of the given file, reusing the hash of {@code previous} if the file
+     * looks untouched since then.
+     *
+     * @param previous
+     *      Fingerprint taken in an earlier build, or null.
+     */
+    static Fingerprint of(File f, Fingerprint previous) throws IOException {
+        return of(f, f.length(), f.lastModified(), previous);
+    }
+
+    /**
+     * Same as {@link #of(File, Fingerprint)}, with the size and the timestamp of the file already known.
+     */
+    static Fingerprint of(File f, long size, long lastModified, Fingerprint previous) throws IOException {
+        if (previous != null && previous.size == size && previous.lastModified == lastModified) {
+            return previous;
+        }
+        return new Fingerprint(size, lastModified, digest(f));
+    }
+
+    /**
+     * True if the file content is the same, regardless of the timestamp.
+     */
+    boolean sameContent(Fingerprint that) {
+        return that != null && size == that.size && Arrays.equals(digest, that.digest);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        BinaryIO.writeBytes(out, digest);
+    }
+
+    static Fingerprint readFrom(DataInput in) throws IOException {
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        byte[] digest = BinaryIO.readBytes(in, DIGEST_LENGTH);
+        return new Fingerprint(size, lastModified, digest);
+    }
+
+    static byte[] digest(File f) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[8192];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                md.update(buf, 0, len);
+            }
+        }
+        return md.digest();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JRE supports SHA-256
+        }
+    }
+}
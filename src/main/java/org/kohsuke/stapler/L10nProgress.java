@@ -23,15 +23,23 @@
 package org.kohsuke.stapler;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,37 +55,242 @@ public class L10nProgress {
      */
     private final Set<String> locales = new TreeSet<>();
 
+    /**
+     * Index of each locale in the count arrays of {@link HudsonMessages}. The default locale "" is always 0.
+     */
+    private final Map<String, Integer> localeIndex = new HashMap<>(Map.of("", 0));
+
+    /**
+     * Indices of {@link #locales} in their order, or null if it needs to be recomputed.
+     */
+    private int[] columns;
+
     private final List<HudsonMessages> messages = new ArrayList<>();
 
+    /**
+     * Sum of the counts of all {@link #messages}, indexed like {@link #localeIndex}.
+     */
+    private int[] totals = new int[0];
+
+    private TimingReport timings = TimingReport.DISABLED;
+
+    private Consumer<HudsonMessages> listener;
+
+    private BiConsumer<File, IOException> errorHandler = (file, e) -> {
+        throw new UncheckedIOException(e);
+    };
+
+    private boolean keyLevel;
+    private boolean listKeys;
+
+    private int threads = 1;
+
+    private L10nSnapshot snapshot;
+
+    private FileTreeIndex index = FileTreeIndex.of(null, 0, null);
+
+    /**
+     * Sets the number of threads {@link #parseRecursively(File)} and {@link #parse(Collection)} use.
+     * 0 or less means one per processor. The result is the same regardless of this setting.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Records the time spent reading each resource file.
+     */
+    void setTimings(TimingReport timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * If true, compare the keys of each localized bundle against the default bundle of the directory,
+     * so that only the keys that are actually translated count, and the missing and obsolete keys are counted too.
+     * Otherwise, the number of messages in each bundle is compared.
+     *
+     * @param listKeys
+     *      Also remember the missing and obsolete keys themselves.
+     */
+    public void setKeyLevel(boolean keyLevel, boolean listKeys) {
+        this.keyLevel = keyLevel;
+        this.listKeys = listKeys;
+    }
+
+    boolean isKeyLevel() {
+        return keyLevel;
+    }
+
+    boolean isListKeys() {
+        return keyLevel && listKeys;
+    }
+
+    /**
+     * Reuses the counts of the directories whose bundles haven't changed since the given snapshot,
+     * and records the counts of all the directories in it. Listing the keys always reads every bundle.
+     */
+    void setSnapshot(L10nSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Lists directories through the given index, so that directories already listed by other goals
+     * aren't listed again.
+     */
+    void setIndex(FileTreeIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Receives each directory as soon as it's added, in the order of the rows.
+     */
+    void setListener(Consumer<HudsonMessages> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Receives the resource files that can't be read, which are counted as empty.
+     * By default, the error is rethrown as {@link UncheckedIOException}, which fails the parse.
+     * May be called from several threads at once.
+     */
+    void setErrorHandler(BiConsumer<File, IOException> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Locales used in the set of files parsed so far, in order.
+     */
+    Set<String> getLocales() {
+        return Collections.unmodifiableSet(locales);
+    }
+
     /**
      * Information per directory.
      */
     public final class HudsonMessages {
         private final File dir;
-        private final Map<String, Integer> map = new HashMap<>();
+
+        /**
+         * Number of messages, indexed like {@link #localeIndex}, or -1 if there's no resource file for the locale.
+         * Locales past the end have no resource file either.
+         */
+        private int[] counts;
+
+        /**
+         * Key-level comparison against the default bundle, or null if that's not done.
+         */
+        private Coverage coverage;
 
         public HudsonMessages(final File dir) {
+            this(dir, new int[0]);
+        }
+
+        private HudsonMessages(File dir, int[] counts) {
             this.dir = dir;
+            this.counts = counts;
         }
 
         public String getDirectoryName() {
             return dir.getName();
         }
 
+        File getDirectory() {
+            return dir;
+        }
+
         private void setCnt(final String locale, final int cnt) {
-            map.put(locale, cnt);
+            int i = intern(locale);
+            if (i >= counts.length) {
+                int old = counts.length;
+                counts = Arrays.copyOf(counts, i + 1);
+                Arrays.fill(counts, old, i, -1);
+            }
+            counts[i] = cnt;
+        }
+
+        /**
+         * True if this directory has a resource file for the given locale.
+         */
+        boolean has(String locale) {
+            Integer i;
+            synchronized (localeIndex) {
+                i = localeIndex.get(locale);
+            }
+            return i != null && i < counts.length && counts[i] >= 0;
         }
 
         public int getCnt(final String locale) {
-            final Integer cnt = map.get(locale);
-            return cnt != null ? cnt : 0;
+            Integer i;
+            synchronized (localeIndex) {
+                i = localeIndex.get(locale);
+            }
+            return i != null ? getCnt(i) : 0;
+        }
+
+        private int getCnt(int i) {
+            return i < counts.length ? Math.max(counts[i], 0) : 0;
         }
 
         /**
          * Gets the ratio of localization against the default locale.
+         * This is 0 if there are no messages in the default locale.
          */
         public int ratio(String locale) {
-            return (int) (((double) getCnt(locale) / getCnt("")) * 100);
+            return ratio(getCnt(locale));
+        }
+
+        private int ratio(int cnt) {
+            int base = getCnt(0);
+            return base != 0 ? (int) (((double) cnt / base) * 100) : 0;
+        }
+
+        /**
+         * Number of keys of the default bundle that are missing from the bundle of the given locale,
+         * or -1 if keys aren't compared.
+         */
+        int getMissing(String locale) {
+            return coverage != null && has(locale) ? getCnt("") - getCnt(locale) : -1;
+        }
+
+        /**
+         * Number of keys in the bundle of the given locale that are no longer in the default bundle,
+         * or -1 if keys aren't compared.
+         */
+        int getObsolete(String locale) {
+            if (coverage == null || !has(locale)) {
+                return -1;
+            }
+            return coverage.obsolete.get(locale);
+        }
+
+        /**
+         * Keys that are missing from the bundle of the given locale, or null if they weren't kept.
+         */
+        List<String> getMissingKeys(String locale) {
+            if (coverage == null || coverage.keys == null || !has(locale)) {
+                return null;
+            }
+            BitSet translated = coverage.locales.get(locale);
+            List<String> keys = new ArrayList<>();
+            for (int i = translated.nextClearBit(0); i < coverage.defaults; i = translated.nextClearBit(i + 1)) {
+                keys.add(coverage.keys[i]);
+            }
+            return keys;
+        }
+
+        /**
+         * Keys that are only in the bundle of the given locale, or null if they weren't kept.
+         */
+        List<String> getObsoleteKeys(String locale) {
+            if (coverage == null || coverage.keys == null || !has(locale)) {
+                return null;
+            }
+            BitSet translated = coverage.locales.get(locale);
+            List<String> keys = new ArrayList<>();
+            for (int i = translated.nextSetBit(coverage.defaults); i >= 0; i = translated.nextSetBit(i + 1)) {
+                keys.add(coverage.keys[i]);
+            }
+            return keys;
         }
 
         /**
@@ -89,41 +302,105 @@ public class L10nProgress {
                     .append("(")
                     .append(getCnt(""))
                     .append(") |");
-            for (final String locale : locales) {
-                b.append(getCnt(locale)).append("(").append(ratio(locale)).append("%)|");
+            for (int i : getColumns()) {
+                int cnt = getCnt(i);
+                b.append(cnt).append("(").append(ratio(cnt)).append("%)|");
             }
             b.append("\n");
         }
     }
 
+    /**
+     * Keys of all the bundles in a directory, each localized bundle represented as a set of bits
+     * over the same key index. Only the counts are kept unless the keys are listed.
+     */
+    private static final class Coverage {
+        /**
+         * All the keys by their index, the keys of the default bundle first. Null unless the keys are listed.
+         */
+        final String[] keys;
+
+        /**
+         * Number of keys in the default bundle. Bits from this index on are obsolete keys.
+         */
+        final int defaults;
+
+        /**
+         * Keys of each localized bundle. Null unless the keys are listed.
+         */
+        final Map<String, BitSet> locales;
+
+        /**
+         * Number of obsolete keys of each localized bundle.
+         */
+        final Map<String, Integer> obsolete;
+
+        Coverage(String[] keys, int defaults, Map<String, BitSet> locales, Map<String, Integer> obsolete) {
+            this.keys = keys;
+            this.defaults = defaults;
+            this.locales = locales;
+            this.obsolete = obsolete;
+        }
+    }
+
     /**
      * Gets the pseudo {@link HudsonMessages} that represents the sum of all {@link #messages}.
      */
     public HudsonMessages getTotal() {
-        HudsonMessages sum = new HudsonMessages(new File("total"));
-        ArrayList<String> localesPlusOne = new ArrayList<>(locales);
-        localesPlusOne.add("");
-        for (String locale : localesPlusOne) {
-            int cnt = 0;
-            for (HudsonMessages m : messages) {
-                cnt += m.getCnt(locale);
+        return new HudsonMessages(new File("total"), totals.clone());
+    }
+
+    /**
+     * Total messages of each locale, the default locale being "".
+     */
+    Map<String, Integer> getTotals() {
+        Map<String, Integer> r = new TreeMap<>();
+        r.put("", getTotal().getCnt(""));
+        for (String locale : getLocales()) {
+            r.put(locale, getTotal().getCnt(locale));
+        }
+        return r;
+    }
+
+    /**
+     * Gets the index of the given locale, assigning a new one if it's seen for the first time.
+     * Can be called from any thread.
+     */
+    private int intern(String locale) {
+        synchronized (localeIndex) {
+            Integer i = localeIndex.get(locale);
+            if (i == null) {
+                i = localeIndex.size();
+                localeIndex.put(locale, i);
+                locales.add(locale);
+                columns = null;
             }
-            sum.setCnt(locale, cnt);
+            return i;
+        }
+    }
+
+    private int[] getColumns() {
+        synchronized (localeIndex) {
+            if (columns == null) {
+                columns = new int[locales.size()];
+                int j = 0;
+                for (String locale : locales) {
+                    columns[j++] = localeIndex.get(locale);
+                }
+            }
+            return columns;
         }
-        return sum;
     }
 
     /**
      * Returns the number of entries in the given property file.
      */
     private int getMessageCnt(final File file) {
-        final Properties props = new Properties();
         int cnt = 0;
         try {
-            props.load(new FileInputStream(file));
-            cnt = props.size();
+            cnt = PropertiesScanner.count(PropertiesScanner.read(file));
         } catch (final IOException e) {
-            e.printStackTrace();
+            errorHandler.accept(file, e);
         }
         return cnt;
     }
@@ -148,41 +425,249 @@ public class L10nProgress {
     }
 
     public void parse(File dir) {
+        add(load(dir));
+    }
+
+    private void add(HudsonMessages m) {
+        if (totals.length < m.counts.length) {
+            totals = Arrays.copyOf(totals, m.counts.length);
+        }
+        for (int i = 0; i < m.counts.length; i++) {
+            totals[i] += m.getCnt(i);
+        }
+        messages.add(m);
+        if (listener != null) {
+            listener.accept(m);
+        }
+    }
+
+    /**
+     * Counts the messages in the given directory, without touching the shared state,
+     * so this can run on any thread.
+     */
+    private HudsonMessages load(File dir) {
         final HudsonMessages m = new HudsonMessages(dir);
-        final File[] files = dir.listFiles();
-        for (final File f : files) {
+        final Map<String, FileTreeIndex.Entry> bundles = new TreeMap<>();
+        final List<FileTreeIndex.Entry> files = index.list(dir);
+        for (final FileTreeIndex.Entry f : files != null ? files : List.<FileTreeIndex.Entry>of()) {
             final Matcher matcher = FILENAME_PATTERN.matcher(f.getName());
             if (matcher.matches()) {
-                final String locale = matcher.group(1);
-                if (!locale.equals("")) {
-                    locales.add(locale);
+                bundles.put(matcher.group(1), f);
+            }
+        }
+
+        if (snapshot != null && !listKeys) {
+            Map<String, L10nSnapshot.Bundle> saved = snapshot.reuse(dir, bundles);
+            if (saved != null) {
+                restore(m, saved);
+                return m;
+            }
+        }
+
+        if (keyLevel) {
+            loadKeys(m, bundles);
+        } else {
+            for (Map.Entry<String, FileTreeIndex.Entry> e : bundles.entrySet()) {
+                File f = e.getValue().file;
+                long start = System.nanoTime();
+                int cnt = getMessageCnt(f);
+                timings.file(f, start, cnt);
+                m.setCnt(e.getKey(), cnt);
+            }
+        }
+
+        if (snapshot != null) {
+            for (Map.Entry<String, FileTreeIndex.Entry> e : bundles.entrySet()) {
+                String locale = e.getKey();
+                int obsolete = keyLevel && !locale.isEmpty() ? m.getObsolete(locale) : -1;
+                snapshot.record(dir, locale, e.getValue(), m.getCnt(locale), obsolete);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Fills in the counts of an unchanged directory from the snapshot.
+     */
+    private void restore(HudsonMessages m, Map<String, L10nSnapshot.Bundle> saved) {
+        Map<String, Integer> obsolete = new HashMap<>();
+        for (Map.Entry<String, L10nSnapshot.Bundle> e : saved.entrySet()) {
+            m.setCnt(e.getKey(), e.getValue().count);
+            if (!e.getKey().isEmpty()) {
+                obsolete.put(e.getKey(), e.getValue().obsolete);
+            }
+        }
+        if (keyLevel) {
+            if (!saved.containsKey("")) {
+                m.setCnt("", 0);
+            }
+            m.coverage = new Coverage(null, m.getCnt(""), null, obsolete);
+        }
+    }
+
+    /**
+     * Indexes the keys of the default bundle, then records which of them each localized bundle has.
+     */
+    private void loadKeys(HudsonMessages m, Map<String, FileTreeIndex.Entry> bundles) {
+        Map<String, Integer> index = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        Map<String, BitSet> locales = new HashMap<>();
+        Map<String, Integer> obsolete = new HashMap<>();
+
+        FileTreeIndex.Entry defaultEntry = bundles.get("");
+        File defaultBundle = defaultEntry != null ? defaultEntry.file : new File(m.dir, MESSAGES_FILE);
+        long start = System.nanoTime();
+        if (defaultEntry != null && defaultEntry.isFile()) {
+            scanKeys(defaultBundle, key -> {
+                if (index.putIfAbsent(key, keys.size()) == null) {
+                    keys.add(key);
                 }
-                m.setCnt(locale, getMessageCnt(f));
+            });
+        }
+        int defaults = keys.size();
+        timings.file(defaultBundle, start, defaults);
+        m.setCnt("", defaults);
+
+        for (Map.Entry<String, FileTreeIndex.Entry> e : bundles.entrySet()) {
+            if (e.getKey().isEmpty()) {
+                continue;
+            }
+            File f = e.getValue().file;
+            start = System.nanoTime();
+            BitSet translated = new BitSet(defaults);
+            scanKeys(f, key -> {
+                Integer i = index.get(key);
+                if (i == null) {
+                    i = keys.size();
+                    index.put(key, i);
+                    keys.add(key);
+                }
+                translated.set(i);
+            });
+            int cnt = translated.cardinality();
+            timings.file(f, start, cnt);
+            int stale = 0;
+            for (int i = translated.nextSetBit(defaults); i >= 0; i = translated.nextSetBit(i + 1)) {
+                stale++; // obsolete keys don't count as translated
+            }
+            m.setCnt(e.getKey(), cnt - stale);
+            obsolete.put(e.getKey(), stale);
+            if (listKeys) {
+                locales.put(e.getKey(), translated);
             }
         }
-        messages.add(m);
+        m.coverage = listKeys
+                ? new Coverage(keys.toArray(new String[0]), defaults, locales, obsolete)
+                : new Coverage(null, defaults, null, obsolete);
     }
 
+    private void scanKeys(File file, Consumer<String> keys) {
+        try {
+            PropertiesScanner.scan(PropertiesScanner.read(file), keys);
+        } catch (final IOException e) {
+            errorHandler.accept(file, e);
+        }
+    }
+
+    /**
+     * Parses the given directories, which are added in the given order.
+     */
     public void parse(Collection<File> dirs) {
-        for (final File dir : dirs) {
-            parse(dir);
+        if (ParallelTasks.resolveThreads(threads) <= 1) {
+            for (final File dir : dirs) {
+                parse(dir);
+            }
+            return;
+        }
+        List<HudsonMessages> found;
+        try {
+            found = ParallelTasks.map(threads, new ArrayList<>(dirs), this::load);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // I/O errors go to the error handler, so only interruption ends up here
+        }
+        for (HudsonMessages m : found) {
+            add(m);
         }
     }
 
     /**
      * Parse the given directory and all its descendants.
+     *
+     * <p>
+     * Directories are visited in the order of their names, so the rows come out in the same order
+     * on every platform and with any number of threads.
      */
     public void parseRecursively(final File dir) {
-        File[] files = dir.listFiles();
-        if (files == null) {
-            return; // nothing to parse
+        int n = ParallelTasks.resolveThreads(threads);
+        if (n <= 1) {
+            new ScanTask(dir, false).compute();
+            return;
+        }
+        List<HudsonMessages> found;
+        ForkJoinPool pool = new ForkJoinPool(n);
+        try {
+            found = pool.invoke(new ScanTask(dir, true));
+        } finally {
+            pool.shutdown();
+        }
+        for (HudsonMessages m : found) {
+            add(m);
+        }
+    }
+
+    /**
+     * Finds and loads all the message directories in a subtree, forking a task for each subdirectory.
+     * When not parallel, directories are added as soon as they are loaded, and nothing is returned.
+     */
+    private final class ScanTask extends RecursiveTask<List<HudsonMessages>> {
+        private final File dir;
+        private final boolean parallel;
+
+        ScanTask(File dir, boolean parallel) {
+            this.dir = dir;
+            this.parallel = parallel;
         }
-        for (final File f : files) {
-            if (f.isDirectory()) {
-                parseRecursively(f);
-            } else if (f.isFile() && MESSAGES_FILE.equals(f.getName())) {
-                parse(f.getParentFile());
+
+        @Override
+        protected List<HudsonMessages> compute() {
+            List<FileTreeIndex.Entry> files = index.list(dir);
+            if (files == null) {
+                return Collections.emptyList(); // nothing to parse
+            }
+
+            // either a ScanTask or a HudsonMessages, to be joined in this order
+            List<Object> parts = new ArrayList<>();
+            for (final FileTreeIndex.Entry f : files) {
+                if (f.isDirectory()) {
+                    ScanTask t = new ScanTask(f.file, parallel);
+                    if (parallel) {
+                        t.fork();
+                        parts.add(t);
+                    } else {
+                        t.compute();
+                    }
+                } else if (f.isFile() && MESSAGES_FILE.equals(f.getName())) {
+                    if (parallel) {
+                        parts.add(load(dir));
+                    } else {
+                        add(load(dir));
+                    }
+                }
+            }
+            if (!parallel) {
+                return Collections.emptyList();
+            }
+
+            List<HudsonMessages> result = new ArrayList<>();
+            for (Object part : parts) {
+                if (part instanceof ScanTask) {
+                    ScanTask t = (ScanTask) part;
+                    result.addAll(t.join());
+                } else {
+                    result.add((HudsonMessages) part);
+                }
             }
+            return result;
         }
     }
 
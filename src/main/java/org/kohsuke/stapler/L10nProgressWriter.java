@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.kohsuke.stapler.L10nProgress.HudsonMessages;
+
+/**
+ * Writes the result of {@link L10nProgress} in one of the supported formats.
+ *
+ * <p>
+ * {@link #row(HudsonMessages)} is called for each directory as soon as it's counted, and
+ * {@link #finish()} once all the directories are done. The CSV and JSON formats write each
+ * directory right away, one record per locale that has a resource file, and append the totals
+ * at the end. The Hatena format needs all the locales for its header, so it's written at the end.
+ */
+abstract class L10nProgressWriter {
+    /**
+     * Names of the supported formats.
+     */
+    static final List<String> FORMATS = List.of("hatena", "csv", "json");
+
+    protected final L10nProgress progress;
+    protected final Writer out;
+
+    /**
+     * Directory that the paths in the output are relative to.
+     */
+    private final Path base;
+
+    /**
+     * Sum of the missing and the obsolete keys of each locale in the rows so far, in the key-level mode.
+     */
+    private final Map<String, int[]> keyTotals = new HashMap<>();
+
+    private L10nProgressWriter(L10nProgress progress, Writer out, Path base) {
+        this.progress = progress;
+        this.out = out;
+        this.base = base;
+    }
+
+    abstract void row(HudsonMessages m) throws IOException;
+
+    abstract void finish() throws IOException;
+
+    protected void addToTotals(HudsonMessages m) {
+        if (!progress.isKeyLevel()) {
+            return;
+        }
+        for (String locale : progress.getLocales()) {
+            if (m.has(locale)) {
+                int[] t = keyTotals.computeIfAbsent(locale, k -> new int[2]);
+                t[0] += m.getMissing(locale);
+                t[1] += m.getObsolete(locale);
+            }
+        }
+    }
+
+    /**
+     * Missing and obsolete keys of the given locale in one row, or in all the rows so far.
+     */
+    protected int[] keyCounts(HudsonMessages m, String locale, boolean total) {
+        return total ? getKeyTotals(locale) : new int[] {m.getMissing(locale), m.getObsolete(locale)};
+    }
+
+    /**
+     * Missing and obsolete keys of the given locale in all the rows.
+     */
+    protected int[] getKeyTotals(String locale) {
+        return keyTotals.getOrDefault(locale, new int[2]);
+    }
+
+    protected String pathOf(HudsonMessages m) {
+        Path p = m.getDirectory().toPath().toAbsolutePath();
+        if (base != null && p.startsWith(base)) {
+            p = base.relativize(p);
+        }
+        return p.toString().replace('\\', '/');
+    }
+
+    /**
+     * @param format
+     *      One of {@link #FORMATS}.
+     * @param base
+     *      Directory that the paths in the output are relative to, or null to write absolute paths.
+     */
+    static L10nProgressWriter create(String format, L10nProgress progress, Writer out, Path base) {
+        base = base != null ? base.toAbsolutePath() : null;
+        switch (format) {
+            case "hatena":
+                return new Hatena(progress, out, base);
+            case "csv":
+                return new Csv(progress, out, base);
+            case "json":
+                return new Json(progress, out, base);
+            default:
+                throw new IllegalArgumentException("Unknown format " + format + "; expected one of " + FORMATS);
+        }
+    }
+
+    /**
+     * The historical Hatena diary table, one column per locale.
+     */
+    private static final class Hatena extends L10nProgressWriter {
+        Hatena(L10nProgress progress, Writer out, Path base) {
+            super(progress, out, base);
+        }
+
+        @Override
+        void row(HudsonMessages m) {
+            // the header lists all the locales, so nothing can be written until the end
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.write(progress.toHatena());
+        }
+    }
+
+    /**
+     * One line per directory and locale: {@code path,directory,locale,messages,ratio},
+     * where the default locale is written as an empty string and the totals have the path "total".
+     * In the key-level mode, {@code missing,obsolete} follow, and then the space-separated
+     * {@code missingKeys,obsoleteKeys} if the keys are listed.
+     */
+    private static final class Csv extends L10nProgressWriter {
+        private boolean first = true;
+
+        Csv(L10nProgress progress, Writer out, Path base) {
+            super(progress, out, base);
+        }
+
+        @Override
+        void row(HudsonMessages m) throws IOException {
+            addToTotals(m);
+            write(m, pathOf(m), m.getDirectoryName(), false);
+        }
+
+        @Override
+        void finish() throws IOException {
+            write(progress.getTotal(), "total", "total", true);
+            out.flush();
+        }
+
+        private void write(HudsonMessages m, String path, String name, boolean total) throws IOException {
+            if (first) {
+                out.write("path,directory,locale,messages,ratio");
+                if (progress.isKeyLevel()) {
+                    out.write(",missing,obsolete");
+                }
+                if (progress.isListKeys()) {
+                    out.write(",missingKeys,obsoleteKeys");
+                }
+                out.write('\n');
+                first = false;
+            }
+            String prefix = escape(path) + ',' + escape(name) + ',';
+            if (m.has("")) {
+                int cnt = m.getCnt("");
+                out.write(prefix + ',' + cnt + ',' + (cnt > 0 ? 100 : 0));
+                if (progress.isKeyLevel()) {
+                    out.write(",0,0");
+                }
+                if (progress.isListKeys()) {
+                    out.write(",,");
+                }
+                out.write('\n');
+            }
+            for (String locale : progress.getLocales()) {
+                if (!m.has(locale)) {
+                    continue;
+                }
+                out.write(prefix + escape(locale) + ',' + m.getCnt(locale) + ',' + m.ratio(locale));
+                if (progress.isKeyLevel()) {
+                    int[] t = keyCounts(m, locale, total);
+                    out.write("," + t[0] + ',' + t[1]);
+                }
+                if (progress.isListKeys()) {
+                    if (total) {
+                        out.write(",,");
+                    } else {
+                        out.write(',' + escape(String.join(" ", m.getMissingKeys(locale))));
+                        out.write(',' + escape(String.join(" ", m.getObsoleteKeys(locale))));
+                    }
+                }
+                out.write('\n');
+            }
+        }
+
+        private static String escape(String s) {
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+                return s;
+            }
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    /**
+     * <pre>
+     * {"directories":[
+     * {"path":"...","directory":"...","messages":10,"locales":{"ja":{"messages":5,"ratio":50}}},
+     * ...],
+     * "total":{"messages":..., "locales":{...}}}
+     * </pre>
+     * In the key-level mode, each locale also has {@code "missing"} and {@code "obsolete"} counts,
+     * and the {@code "missingKeys"} and {@code "obsoleteKeys"} arrays if the keys are listed.
+     */
+    private static final class Json extends L10nProgressWriter {
+        private boolean first = true;
+
+        Json(L10nProgress progress, Writer out, Path base) {
+            super(progress, out, base);
+        }
+
+        @Override
+        void row(HudsonMessages m) throws IOException {
+            addToTotals(m);
+            out.write(first ? "{\"directories\":[\n" : ",\n");
+            first = false;
+            out.write("{\"path\":");
+            string(pathOf(m));
+            out.write(",\"directory\":");
+            string(m.getDirectoryName());
+            out.write(',');
+            counts(m, false);
+            out.write('}');
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.write(first ? "{\"directories\":[],\n" : "],\n");
+            out.write("\"total\":{");
+            counts(progress.getTotal(), true);
+            out.write("}}\n");
+            out.flush();
+        }
+
+        private void counts(HudsonMessages m, boolean total) throws IOException {
+            out.write("\"messages\":" + m.getCnt("") + ",\"locales\":{");
+            boolean firstLocale = true;
+            for (String locale : progress.getLocales()) {
+                if (m.has(locale)) {
+                    if (!firstLocale) {
+                        out.write(',');
+                    }
+                    firstLocale = false;
+                    string(locale);
+                    out.write(":{\"messages\":" + m.getCnt(locale) + ",\"ratio\":" + m.ratio(locale));
+                    if (progress.isKeyLevel()) {
+                        int[] t = keyCounts(m, locale, total);
+                        out.write(",\"missing\":" + t[0] + ",\"obsolete\":" + t[1]);
+                    }
+                    if (progress.isListKeys() && !total) {
+                        out.write(",\"missingKeys\":");
+                        strings(m.getMissingKeys(locale));
+                        out.write(",\"obsoleteKeys\":");
+                        strings(m.getObsoleteKeys(locale));
+                    }
+                    out.write('}');
+                }
+            }
+            out.write('}');
+        }
+
+        private void strings(List<String> list) throws IOException {
+            out.write('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                string(list.get(i));
+            }
+            out.write(']');
+        }
+
+        private void string(String s) throws IOException {
+            out.write('"');
+            for (int i = 0; i < s.length(); i++) {
+                char ch = s.charAt(i);
+                if (ch == '"' || ch == '\\') {
+                    out.write('\\');
+                    out.write(ch);
+                } else if (ch < 0x20) {
+                    out.write(String.format("\\u%04x", (int) ch));
+                } else {
+                    out.write(ch);
+                }
+            }
+            out.write('"');
+        }
+    }
+}
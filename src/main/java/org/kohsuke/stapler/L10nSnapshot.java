@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Message counts of every resource directory from the previous run of {@link LocalizerProgressMojo},
+ * so that only the directories whose bundles have changed are read again, and the totals of the last few runs,
+ * so that the progress since then can be reported.
+ *
+ * <p>
+ * Each directory remembers the fingerprint and the counts of every bundle in it, keyed by locale.
+ * A directory is reused only if it still has the same bundles with the same content. Entries are keyed by
+ * the absolute path of the directory, and only the directories seen in the current run are saved.
+ * {@link #reuse(File, Map)} and {@link #record(File, String, FileTreeIndex.Entry, int, int)} can be called
+ * from multiple threads.
+ */
+final class L10nSnapshot {
+    /**
+     * Bump this whenever the file format or the way messages are counted changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Whether the counts were taken key by key. See {@link L10nProgress#setKeyLevel(boolean, boolean)}.
+     */
+    private final boolean keyLevel;
+
+    /**
+     * Totals of the previous snapshots, the oldest first.
+     */
+    private final List<Totals> history;
+
+    private final Map<String, Map<String, Bundle>> previous;
+    private final Map<String, Map<String, Bundle>> current = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private L10nSnapshot(boolean keyLevel, List<Totals> history, Map<String, Map<String, Bundle>> previous) {
+        this.keyLevel = keyLevel;
+        this.history = history;
+        this.previous = previous;
+    }
+
+    /**
+     * Total messages of each locale at some point in time.
+     */
+    static final class Totals {
+        final long timestamp;
+        /**
+         * Keyed by locale, the default locale being "".
+         */
+        final Map<String, Integer> counts;
+
+        Totals(long timestamp, Map<String, Integer> counts) {
+            this.timestamp = timestamp;
+            this.counts = Collections.unmodifiableMap(new TreeMap<>(counts));
+        }
+    }
+
+    static final class Bundle {
+        final Fingerprint fingerprint;
+        final int count;
+        /**
+         * Number of obsolete keys, or -1 if keys weren't compared.
+         */
+        final int obsolete;
+
+        Bundle(Fingerprint fingerprint, int count, int obsolete) {
+            this.fingerprint = fingerprint;
+            this.count = count;
+            this.obsolete = obsolete;
+        }
+    }
+
+    /**
+     * Returns the counts of the bundles in the given directory from the previous snapshot,
+     * if the directory still has exactly the same bundles.
+     *
+     * @param bundles
+     *      Bundle files currently in the directory, keyed by locale.
+     * @return
+     *      Counts keyed by locale, or null if the directory needs to be read again.
+     */
+    Map<String, Bundle> reuse(File dir, Map<String, FileTreeIndex.Entry> bundles) {
+        String key = dir.getAbsolutePath();
+        Map<String, Bundle> old = previous.get(key);
+        if (old == null || !old.keySet().equals(bundles.keySet())) {
+            return null;
+        }
+        Map<String, Bundle> reused = new ConcurrentHashMap<>();
+        try {
+            for (Map.Entry<String, FileTreeIndex.Entry> e : bundles.entrySet()) {
+                Bundle b = old.get(e.getKey());
+                FileTreeIndex.Entry f = e.getValue();
+                Fingerprint fp = Fingerprint.of(f.file, f.length(), f.lastModified(), b.fingerprint);
+                if (!fp.sameContent(b.fingerprint)) {
+                    return null;
+                }
+                reused.put(e.getKey(), new Bundle(fp, b.count, b.obsolete));
+            }
+        } catch (IOException e) {
+            return null; // read it again, which reports the problem
+        }
+        hits.incrementAndGet();
+        current.put(key, reused);
+        return reused;
+    }
+
+    /**
+     * Records the counts of a bundle that has just been read.
+     */
+    void record(File dir, String locale, FileTreeIndex.Entry bundle, int count, int obsolete) {
+        String key = dir.getAbsolutePath();
+        Map<String, Bundle> old = previous.get(key);
+        Bundle b = old != null ? old.get(locale) : null;
+        Map<String, Bundle> bundles = current.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        try {
+            Fingerprint fp = Fingerprint.of(
+                    bundle.file, bundle.length(), bundle.lastModified(), b != null ? b.fingerprint : null);
+            bundles.put(locale, new Bundle(fp, count, obsolete));
+        } catch (IOException e) {
+            current.remove(key); // can't tell if it has changed next time
+        }
+    }
+
+    /**
+     * True if there was a previous snapshot taken in the same mode, so that the totals can be compared.
+     */
+    boolean exists() {
+        return !history.isEmpty();
+    }
+
+    /**
+     * Totals of the previous snapshots that were kept, the oldest first.
+     */
+    List<Totals> getHistory() {
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Number of directories reused so far.
+     */
+    int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of directories recorded so far.
+     */
+    int size() {
+        return current.size();
+    }
+
+    /**
+     * Loads the snapshot, or returns an empty one if the file is missing, unusable,
+     * or was taken in the other mode.
+     */
+    static L10nSnapshot load(File file, boolean keyLevel, Log log) {
+        List<Totals> history = new ArrayList<>();
+        Map<String, Map<String, Bundle>> entries = new HashMap<>();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() == FORMAT_VERSION) {
+                if (in.readBoolean() != keyLevel) {
+                    log.info("Ignoring " + file + " taken with a different stapler.l10n.keys setting");
+                    return new L10nSnapshot(keyLevel, history, entries);
+                }
+                for (int i = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH); i > 0; i--) {
+                    long timestamp = in.readLong();
+                    Map<String, Integer> counts = new HashMap<>();
+                    for (int j = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH); j > 0; j--) {
+                        counts.put(BinaryIO.readString(in), in.readInt());
+                    }
+                    history.add(new Totals(timestamp, counts));
+                }
+                for (int i = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH); i > 0; i--) {
+                    String dir = BinaryIO.readString(in);
+                    Map<String, Bundle> bundles = new HashMap<>();
+                    for (int j = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH); j > 0; j--) {
+                        String locale = BinaryIO.readString(in);
+                        Fingerprint fp = Fingerprint.readFrom(in);
+                        bundles.put(locale, new Bundle(fp, in.readInt(), in.readInt()));
+                    }
+                    entries.put(dir, bundles);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (IOException e) {
+            log.warn("Ignoring corrupted l10n progress snapshot " + file, e);
+            history.clear();
+            entries.clear();
+        }
+        return new L10nSnapshot(keyLevel, history, entries);
+    }
+
+    /**
+     * Writes the directories recorded in this run to the given file, along with the given totals
+     * and those of the previous snapshots.
+     *
+     * @param keep
+     *      Number of totals to keep, including the new ones. The oldest are dropped first.
+     */
+    void save(File file, Map<String, Integer> newTotals, int keep) throws IOException {
+        List<Totals> kept = new ArrayList<>(history);
+        kept.add(new Totals(System.currentTimeMillis(), newTotals));
+        kept = kept.subList(Math.max(0, kept.size() - Math.max(1, keep)), kept.size());
+        try (AtomicFileOutput af = new AtomicFileOutput(file)) {
+            DataOutputStream out = new DataOutputStream(af.getStream());
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(keyLevel);
+            out.writeInt(kept.size());
+            for (Totals t : kept) {
+                out.writeLong(t.timestamp);
+                out.writeInt(t.counts.size());
+                for (Map.Entry<String, Integer> e : t.counts.entrySet()) {
+                    BinaryIO.writeString(out, e.getKey());
+                    out.writeInt(e.getValue());
+                }
+            }
+            out.writeInt(current.size());
+            for (Map.Entry<String, Map<String, Bundle>> e : current.entrySet()) {
+                BinaryIO.writeString(out, e.getKey());
+                out.writeInt(e.getValue().size());
+                for (Map.Entry<String, Bundle> b : e.getValue().entrySet()) {
+                    BinaryIO.writeString(out, b.getKey());
+                    b.getValue().fingerprint.writeTo(out);
+                    out.writeInt(b.getValue().count);
+                    out.writeInt(b.getValue().obsolete);
+                }
+            }
+            out.flush();
+            af.commit();
+        }
+    }
+}
@@ -22,20 +22,25 @@
  */
 package org.kohsuke.stapler;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -56,7 +61,9 @@ import org.xml.sax.helpers.DefaultHandler;
 @Mojo(name = "i18n")
 public class LocalizerMojo extends AbstractMojo {
     /**
-     * The locale to generate properties for.
+     * The locale to generate properties for, or a comma-separated list of them, like {@code ja,de,fr}.
+     * {@code all} stands for every locale that already has a resource file next to some Jelly script.
+     * Each script is parsed only once no matter how many locales are given.
      */
     @Parameter(defaultValue = "${locale}", required = true)
     protected String locale;
@@ -67,110 +74,422 @@ public class LocalizerMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
     protected MavenProject project;
 
+    /**
+     * The Maven session object.
+     */
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    protected MavenSession session;
+
+    /**
+     * Number of threads used to parse Jelly scripts. 0 or less means one per processor.
+     * Resource files are still updated one at a time in a fixed order, so the result is the same
+     * regardless of this setting.
+     */
+    @Parameter(property = "stapler.threads", defaultValue = "1")
+    protected int threads = 1;
+
+    /**
+     * How deep below each resource directory to look, where 1 means only the files directly in it.
+     * 0 or less means no limit.
+     * Symbolic links are followed, except those that point back to one of their own parent directories.
+     */
+    @Parameter(property = "stapler.maxDepth", defaultValue = "0")
+    protected int maxDepth;
+
+    /**
+     * If true, remember the property keys used in each Jelly script in {@code target/l10n-cache.bin},
+     * and only parse scripts that have changed since the previous build. Scripts whose resource file
+     * hasn't changed either are skipped altogether, so warnings about their unused properties are
+     * only reported once.
+     */
+    @Parameter(property = "stapler.incremental", defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * If true, only report the properties that would be added to each resource file, without writing anything.
+     */
+    @Parameter(property = "stapler.dryRun", defaultValue = "false")
+    protected boolean dryRun;
+
+    /**
+     * If true, write {@code target/stapler-timing-l10n.txt} with the time spent in each phase
+     * and the slowest files.
+     */
+    @Parameter(property = "stapler.timing", defaultValue = "false")
+    protected boolean timing;
+
+    /**
+     * Number of the slowest files listed in the timing report.
+     */
+    @Parameter(property = "stapler.timing.top", defaultValue = "20")
+    protected int timingTop = 20;
+
+    /**
+     * Time budget of this goal in milliseconds. A warning is issued if the goal takes longer.
+     * 0 means no budget.
+     */
+    @Parameter(property = "stapler.timing.budget", defaultValue = "0")
+    protected long timingBudget;
+
+    private TimingReport timings = TimingReport.DISABLED;
+
+    /**
+     * Non-null in the incremental mode, during {@link #execute()} or while {@link ProcessMojo} runs this goal.
+     */
+    ViewKeyCache cache;
+
+    private FileTreeIndex index;
+
+    private final List<PendingWrite> pendingWrites = new ArrayList<>();
+
+    /**
+     * Locales resolved from {@link #locale} in {@link #execute()}.
+     */
+    private List<String> locales;
+
     @Override
     public void execute() throws MojoExecutionException {
-        // create parser
+        timings = new TimingReport("l10n", timingTop, timing);
+        File cacheFile = new File(project.getBasedir(), "target/l10n-cache.bin");
+        if (incremental) {
+            cache = ViewKeyCache.load(cacheFile, getLog());
+        }
+        try {
+            long start = System.nanoTime();
+            List<File> views = new ArrayList<>();
+            for (Resource res : project.getResources()) {
+                File dir = new File(res.getDirectory());
+                findJellyFiles(getIndex(), dir, views);
+            }
+            boolean any = prepare(views);
+            timings.phase("walk", start);
+            if (any) {
+                start = System.nanoTime();
+                List<Set<String>> props;
+                try {
+                    props = ParallelTasks.map(threads, views, this::findKeys);
+                } catch (IOException e) {
+                    throw new MojoExecutionException(e.getMessage(), e);
+                }
+                timings.phase("parse", start);
+
+                start = System.nanoTime();
+                try {
+                    update(views, props);
+                    if (cache != null) {
+                        getLog().info("Reused " + cache.getHits() + " of " + cache.size() + " views from the cache");
+                        cache.save(cacheFile);
+                    }
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to update the l10n cache " + cacheFile, e);
+                }
+                timings.phase("write", start);
+            }
+
+            timings.finish(new File(project.getBasedir(), "target/stapler-timing-l10n.txt"), timingBudget, getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write the timing report", e);
+        } finally {
+            timings = TimingReport.DISABLED;
+            cache = null;
+            pendingWrites.clear();
+        }
+    }
+
+    /**
+     * Resolves {@link #locale} against the given Jelly scripts.
+     *
+     * @return
+     *      false if there are no locales, so there's nothing to do.
+     */
+    boolean prepare(List<File> views) throws MojoExecutionException {
+        locales = resolveLocales(views);
+        if (locales.isEmpty()) {
+            getLog().warn("No localized resource files found, so there are no locales to generate properties for");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the missing properties to the resource files of the given Jelly scripts.
+     *
+     * @param props
+     *      Property keys used in each of {@code views}.
+     */
+    void update(List<File> views, List<Set<String>> props) throws MojoExecutionException, IOException {
+        for (int i = 0; i < views.size(); i++) {
+            File view = views.get(i);
+            if (props.get(i).isEmpty()) {
+                continue;
+            }
+            for (String l : locales) {
+                File resourceFile = getResourceFile(view, l);
+                if (cache != null && cache.isUpToDate(view, l, resourceFile)) {
+                    continue;
+                }
+                if (!updateResourceFile(view, l, resourceFile, props.get(i)) && cache != null) {
+                    cache.updated(view, l, resourceFile);
+                }
+            }
+        }
+        flushWrites();
+    }
+
+    private FileTreeIndex getIndex() {
+        if (index == null) {
+            index = FileTreeIndex.of(session, maxDepth, getLog());
+        }
+        return index;
+    }
+
+    private static SAXParser createParser() {
         try {
             SAXParserFactory spf = SAXParserFactory.newInstance();
             spf.setNamespaceAware(true);
-            parser = spf.newSAXParser();
+            return spf.newSAXParser();
         } catch (SAXException | ParserConfigurationException e) {
             throw new Error(e); // impossible
         }
+    }
 
-        for (Resource res : project.getResources()) {
-            File dir = new File(res.getDirectory());
-            processDirectory(dir);
+    /**
+     * Lists up all the Jelly scripts in the given directory and its descendants, in a stable order.
+     */
+    private static void findJellyFiles(FileTreeIndex index, File dir, List<File> views) {
+        List<FileTreeIndex.Entry> children = index.list(dir);
+        if (children == null) {
+            return;
+        }
+        for (FileTreeIndex.Entry child : children) {
+            if (child.isDirectory()) {
+                findJellyFiles(index, child.file, views);
+            } else if (child.getName().endsWith(".jelly")) {
+                views.add(child.file);
+            }
         }
     }
 
-    private void process(File file) throws MojoExecutionException {
-        if (file.isDirectory()) {
-            processDirectory(file);
-        } else if (file.getName().endsWith(".jelly")) {
-            processJelly(file);
+    /**
+     * Resolves {@link #locale} into the list of locales.
+     *
+     * @param views
+     *      All the Jelly scripts, to look for the existing resource files if {@code all} is given.
+     */
+    private List<String> resolveLocales(List<File> views) throws MojoExecutionException {
+        Set<String> result = new LinkedHashSet<>();
+        for (String l : locale.split(",")) {
+            l = l.trim();
+            if (l.equals("all")) {
+                result.addAll(findExistingLocales(views));
+            } else if (!l.isEmpty()) {
+                result.add(l);
+            }
+        }
+        if (result.isEmpty() && !locale.contains("all")) {
+            throw new MojoExecutionException("No locale is given");
         }
+        return new ArrayList<>(result);
     }
 
-    private void processDirectory(File dir) throws MojoExecutionException {
-        File[] children = dir.listFiles();
-        if (children == null) {
-            return;
+    /**
+     * Finds the locales of all the {@code VIEW_LOCALE.properties} files next to the given Jelly scripts.
+     */
+    private Set<String> findExistingLocales(List<File> views) {
+        Set<String> locales = new TreeSet<>();
+        Map<File, List<String>> dirs = new LinkedHashMap<>();
+        for (File view : views) {
+            String name = view.getName();
+            dirs.computeIfAbsent(view.getParentFile(), k -> new ArrayList<>())
+                    .add(name.substring(0, name.length() - ".jelly".length()) + '_');
         }
-        for (File child : children) {
-            process(child);
+        for (Map.Entry<File, List<String>> e : dirs.entrySet()) {
+            List<FileTreeIndex.Entry> children = getIndex().list(e.getKey());
+            if (children == null) {
+                continue;
+            }
+            for (FileTreeIndex.Entry child : children) {
+                String name = child.getName();
+                if (!name.endsWith(".properties")) {
+                    continue;
+                }
+                for (String prefix : e.getValue()) {
+                    if (name.startsWith(prefix)) {
+                        String l = name.substring(prefix.length(), name.length() - ".properties".length());
+                        if (LOCALE.matcher(l).matches()) {
+                            locales.add(l);
+                        }
+                    }
+                }
+            }
         }
+        return locales;
     }
 
-    @SuppressFBWarnings(value = "DM_DEFAULT_ENCODING", justification = "TODO needs triage")
-    private void processJelly(File file) throws MojoExecutionException {
+    /**
+     * Adds the properties used in the given Jelly script to its resource files, if they are missing.
+     */
+    void processJelly(File file) throws MojoExecutionException {
+        long start = System.nanoTime();
         Set<String> props = findAllProperties(file);
+        timings.phase("parse", start);
         if (props.isEmpty()) {
             return; // nothing to generate here.
         }
 
-        String fileName = file.getName();
+        start = System.nanoTime();
+        try {
+            for (String l : locales) {
+                updateResourceFile(file, l, getResourceFile(file, l), props);
+            }
+            flushWrites();
+        } finally {
+            timings.phase("write", start);
+        }
+    }
+
+    /**
+     * Locales that {@link #execute()} generated properties for.
+     */
+    List<String> getLocales() {
+        return locales;
+    }
+
+    /**
+     * Gets the resource file of the given Jelly script for the given locale.
+     */
+    private static File getResourceFile(File view, String locale) {
+        String fileName = view.getName();
         fileName = fileName.substring(0, fileName.length() - ".jelly".length());
         fileName += '_' + locale + ".properties";
-        File resourceFile = new File(file.getParentFile(), fileName);
+        return new File(view.getParentFile(), fileName);
+    }
 
+    /**
+     * Works out the content of the resource file with the missing properties added,
+     * and queues it to be written by {@link #flushWrites()}.
+     *
+     * @return
+     *      false if no properties are missing, so there's nothing to write.
+     */
+    private boolean updateResourceFile(File view, String locale, File resourceFile, Set<String> props)
+            throws MojoExecutionException {
+        Set<String> missing = new LinkedHashSet<>(props);
+
+        byte[] original = null;
         if (resourceFile.exists()) {
-            Properties resource;
+            Set<String> existing;
             try {
-                resource = new Properties(resourceFile);
-            } catch (IOException e) {
+                original = Files.readAllBytes(resourceFile.toPath());
+                existing = PropertiesScanner.keys(ByteBuffer.wrap(original));
+            } catch (IOException | IllegalArgumentException e) {
                 throw new MojoExecutionException("Failed to read " + resourceFile, e);
             }
 
             // find unnecessary properties = those which are present in the resource file but not in Jelly
-            HashSet<String> unnecessaries = new HashSet<String>((Set) resource.keySet());
-            unnecessaries.removeAll(props);
-            for (String s : unnecessaries) {
-                getLog().warn("Unused property " + s + " in " + resourceFile);
+            for (String s : existing) {
+                if (!props.contains(s)) {
+                    getLog().warn("Unused property " + s + " in " + resourceFile);
+                }
             }
 
             // figure out missing properties
-            props.removeAll(resource.keySet());
-
-            // add NL to the end if necessary
-            try (RandomAccessFile f = new RandomAccessFile(resourceFile, "rw")) {
-                // then add them to the end
-                if (f.length() > 0) {
-                    // add the terminating line end if needed
-                    f.seek(f.length() - 1);
-                    int ch = f.read();
-                    if (!(ch == '\r' || ch == '\n')) {
-                        f.write(System.getProperty("line.separator").getBytes());
-                    }
-                }
-            } catch (IOException e) {
-                throw new MojoExecutionException("Failed to write " + resourceFile, e);
-            }
+            missing.removeAll(existing);
         }
 
-        if (props.isEmpty()) {
-            return; // no change to make
+        if (missing.isEmpty()) {
+            return false; // no change to make
         }
 
-        getLog().info("Updating " + resourceFile);
+        String lineSeparator = getLineSeparator(original);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (original != null && original.length > 0) {
+            content.write(original, 0, original.length);
+            // add the terminating line end if needed
+            byte last = original[original.length - 1];
+            if (!(last == '\r' || last == '\n')) {
+                content.writeBytes(lineSeparator.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        for (String p : missing) {
+            content.writeBytes((escape(p) + "=" + lineSeparator).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        pendingWrites.add(new PendingWrite(view, locale, resourceFile, content.toByteArray(), missing));
+        return true;
+    }
 
-        try (RandomAccessFile f = new RandomAccessFile(resourceFile, "rw")) {
-            // then add them to the end
-            if (f.length() > 0) {
-                // add the terminating line end if needed
-                f.seek(f.length() - 1);
-                int ch = f.read();
-                if (!(ch == '\r' || ch == '\n')) {
-                    f.write(System.getProperty("line.separator").getBytes());
+    /**
+     * Finds the line separator used in the given file content, so that added lines match the rest of the file.
+     */
+    private static String getLineSeparator(byte[] content) {
+        if (content != null) {
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n') {
+                    return i > 0 && content[i - 1] == '\r' ? "\r\n" : "\n";
                 }
             }
-            try (PrintWriter w = new PrintWriter(new FileWriter(resourceFile, true))) {
-                for (String p : props) {
-                    w.println(escape(p) + "=");
+        }
+        return System.lineSeparator();
+    }
+
+    /**
+     * Writes the resource files queued by {@link #updateResourceFile}, or just reports them in {@link #dryRun}.
+     *
+     * <p>
+     * Each file is read once and written once, through a temporary file that is then renamed,
+     * so an interrupted build never leaves a half-written resource file behind.
+     */
+    private void flushWrites() throws MojoExecutionException {
+        try {
+            for (PendingWrite w : pendingWrites) {
+                if (dryRun) {
+                    getLog().info("Would add " + w.added.size() + " properties to " + w.file);
+                    for (String p : w.added) {
+                        getLog().info("  + " + escape(p) + "=");
+                    }
+                    continue;
+                }
+                getLog().info("Updating " + w.file);
+                try (AtomicFileOutput out = new AtomicFileOutput(w.file)) {
+                    out.getStream().write(w.content);
+                    out.commit();
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to write " + w.file, e);
+                } finally {
+                    FileTreeIndex.written(session, w.file);
+                }
+                if (cache != null) {
+                    try {
+                        cache.updated(w.view, w.locale, w.file);
+                    } catch (IOException e) {
+                        throw new MojoExecutionException("Failed to read " + w.file, e);
+                    }
                 }
             }
-        } catch (IOException e) {
-            throw new MojoExecutionException("Failed to write " + resourceFile, e);
+        } finally {
+            pendingWrites.clear();
+        }
+    }
+
+    /**
+     * New content of a resource file, waiting to be written.
+     */
+    private static final class PendingWrite {
+        final File view;
+        final String locale;
+        final File file;
+        final byte[] content;
+        /**
+         * Keys added to the file.
+         */
+        final Set<String> added;
+
+        PendingWrite(File view, String locale, File file, byte[] content, Set<String> added) {
+            this.view = view;
+            this.locale = locale;
+            this.file = file;
+            this.content = content;
+            this.added = added;
         }
     }
 
@@ -198,8 +517,12 @@ public class LocalizerMojo extends AbstractMojo {
                     buf.append('\\').append(ch);
                     break;
                 default:
-                    // TODO: non ASCII char escape
-                    buf.append(ch);
+                    if (ch < 0x20 || ch > 0x7e) {
+                        // resource files are read as ISO-8859-1, so keep them ASCII
+                        buf.append(String.format("\\u%04X", (int) ch));
+                    } else {
+                        buf.append(ch);
+                    }
                     break;
             }
         }
@@ -209,104 +532,88 @@ public class LocalizerMojo extends AbstractMojo {
     /**
      * Parses a Jelly script and lists up all the property names used in there.
      */
-    private Set<String> findAllProperties(File file) throws MojoExecutionException {
+    Set<String> findAllProperties(File file) throws MojoExecutionException {
+        try {
+            return parseJelly(file);
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private Set<String> findKeys(File file) throws IOException {
+        return cache != null ? cache.get(file, this::parseJelly) : parseJelly(file);
+    }
+
+    /**
+     * Same as {@link #findAllProperties(File)}, but safe to call from multiple threads at once,
+     * as each thread uses its own parser.
+     */
+    private Set<String> parseJelly(File file) throws IOException {
         getLog().debug("Parsing " + file);
+        long start = System.nanoTime();
         try {
             // we'd like to preserve order, but don't want duplicates
             final Set<String> properties = new LinkedHashSet<>();
 
-            parser.parse(file, new DefaultHandler() {
-                private final StringBuilder buf = new StringBuilder();
-                private Locator locator;
+            parsers.get().parse(file, new KeyFinder(properties::add));
 
-                @Override
-                public void setDocumentLocator(Locator locator) {
-                    this.locator = locator;
-                }
+            timings.file(file, start, properties.size());
+            return properties;
+        } catch (SAXException | IOException e) {
+            throw new IOException("Failed to parse " + file, e);
+        }
+    }
 
-                @Override
-                public void startElement(String uri, String localName, String qName, Attributes attributes)
-                        throws SAXException {
-                    findExpressions();
-                    for (int i = 0; i < attributes.getLength(); i++) {
-                        buf.append(attributes.getValue(i));
-                        findExpressions();
-                    }
-                }
+    /**
+     * Language, optionally followed by script, country and variant, like {@code pt_BR} or {@code sr_Latn_RS}.
+     */
+    private static final Pattern LOCALE = Pattern.compile("[a-z]{2,3}(_[A-Z][a-z]{3})?(_([A-Z]{2}|[0-9]{3})(_\\w+)?)?");
 
-                @Override
-                public void endElement(String uri, String localName, String qName) throws SAXException {
-                    findExpressions();
-                }
+    /**
+     * {@link SAXParser} isn't thread-safe, so each thread gets its own.
+     */
+    private final ThreadLocal<SAXParser> parsers = ThreadLocal.withInitial(LocalizerMojo::createParser);
 
-                @Override
-                public void characters(char[] ch, int start, int length) {
-                    buf.append(ch, start, length);
-                }
+    /**
+     * Finds the property keys in the text and the attribute values of a Jelly script.
+     */
+    static final class KeyFinder extends DefaultHandler {
+        private final ExpressionScanner scanner;
+        private Locator locator;
 
-                /**
-                 * Find property references of the form "${%xxx(...)}" from {@link #buf}
-                 * and list up property names.
-                 */
-                private void findExpressions() throws SAXParseException {
-                    int idx = -1;
-                    do {
-                        idx = buf.indexOf("${", idx + 1);
-                        if (idx < 0) {
-                            break;
-                        }
+        KeyFinder(Consumer<String> keys) {
+            scanner = new ExpressionScanner(keys);
+        }
 
-                        int end = buf.indexOf("}", idx);
-                        if (end == -1) {
-                            throw new SAXParseException("Missing '}'", locator);
-                        }
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
 
-                        onJexlExpression(buf.substring(idx + 2, end));
-                    } while (true);
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            endText();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                scanner.scan(attributes.getValue(i));
+                endText();
+            }
+        }
 
-                    buf.setLength(0);
-                }
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            endText();
+        }
 
-                /**
-                 * Found a JEXL expression.
-                 */
-                private void onJexlExpression(String exp) {
-                    if (exp.startsWith("%")) {
-                        getLog().debug("Found " + exp);
-                        exp = exp.substring(1);
-
-                        // if parameters follow, remove them
-                        int op = exp.indexOf('(');
-                        if (op >= 0) {
-                            exp = exp.substring(0, op);
-                        }
-                        properties.add(exp);
-                    } else {
-                        Matcher m = RESOURCE_LITERAL_STRING.matcher(exp);
-                        while (m.find()) {
-                            String literal = m.group();
-                            getLog().debug("Found " + literal);
-                            literal = literal.substring(2, literal.length() - 1); // unquote and remove '%'
-
-                            // if parameters follow, remove them
-                            int op = literal.indexOf('(');
-                            if (op >= 0) {
-                                literal = literal.substring(0, op);
-                            }
-                            properties.add(literal);
-                        }
-                    }
-                }
-            });
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            scanner.scan(ch, start, length);
+        }
 
-            return properties;
-        } catch (SAXException | IOException e) {
-            throw new MojoExecutionException("Failed to parse " + file, e);
+        private void endText() throws SAXParseException {
+            if (!scanner.end()) {
+                throw new SAXParseException("Missing '}'", locator);
+            }
         }
     }
-
-    SAXParser parser;
-
-    // "%...."    string literal that starts with '%'
-    private static final Pattern RESOURCE_LITERAL_STRING = Pattern.compile("(\"%[^\"]+\")|('%[^']+')");
 }
@@ -23,14 +23,30 @@
 package org.kohsuke.stapler;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 /**
- * Prints out the progress of localization.
+ * Prints out the progress of localization, or writes it as CSV or JSON.
  *
  * @author ssogabe
  * @see <a href="https://ssogabe.hatenadiary.org/entry/20081213/1229175653">Translation progress</a>
@@ -43,12 +59,225 @@ public class LocalizerProgressMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
     protected MavenProject project;
 
+    /**
+     * The Maven session object.
+     */
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    protected MavenSession session;
+
+    /**
+     * Number of threads used to scan the resource directories. 0 or less means one per processor.
+     */
+    @Parameter(property = "stapler.threads", defaultValue = "1")
+    protected int threads = 1;
+
+    /**
+     * How deep below each resource directory to look, where 1 means only the files directly in it.
+     * 0 or less means no limit.
+     * Symbolic links are followed, except those that point back to one of their own parent directories.
+     */
+    @Parameter(property = "stapler.maxDepth", defaultValue = "0")
+    protected int maxDepth;
+
+    /**
+     * Output format: {@code hatena} (the Hatena diary table), {@code csv} or {@code json}.
+     * CSV and JSON list one record per directory and locale, and are written as the directories are scanned.
+     */
+    @Parameter(property = "stapler.l10n.format", defaultValue = "hatena")
+    protected String format = "hatena";
+
+    /**
+     * File to write the result to. Defaults to {@code target/l10n-progress.csv} or {@code .json} for those formats,
+     * while the Hatena table is printed to the console unless this is set.
+     */
+    @Parameter(property = "stapler.l10n.output")
+    protected File output;
+
+    /**
+     * If true, compare the keys of each localized bundle with the default bundle, so that only
+     * the keys that are actually translated count. CSV and JSON then also report the number of
+     * missing and obsolete keys.
+     */
+    @Parameter(property = "stapler.l10n.keys", defaultValue = "false")
+    protected boolean keyLevel;
+
+    /**
+     * If true, also list the missing and obsolete keys in CSV and JSON. Implies {@link #keyLevel}.
+     */
+    @Parameter(property = "stapler.l10n.listKeys", defaultValue = "false")
+    protected boolean listKeys;
+
+    /**
+     * If true, keep the message counts of every directory in {@code target/l10n-progress.bin},
+     * only read the directories whose bundles have changed since the previous run,
+     * and report how many messages each locale has gained or lost since then.
+     */
+    @Parameter(property = "stapler.incremental", defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * File to keep the snapshot in instead of {@code target/l10n-progress.bin}, for example to follow
+     * the progress across clean builds. Setting this implies {@link #incremental}.
+     */
+    @Parameter(property = "stapler.l10n.snapshot")
+    protected File snapshot;
+
+    /**
+     * Number of runs whose totals are kept in the snapshot, including the current one, so that the progress
+     * is also reported since the oldest of them. The message counts of each directory are only kept for the latest.
+     */
+    @Parameter(property = "stapler.l10n.history", defaultValue = "10")
+    protected int history = 10;
+
+    /**
+     * If true, write {@code target/stapler-timing-l10n-progress.txt} with the time spent in each phase
+     * and the slowest files.
+     */
+    @Parameter(property = "stapler.timing", defaultValue = "false")
+    protected boolean timing;
+
+    /**
+     * Number of the slowest files listed in the timing report.
+     */
+    @Parameter(property = "stapler.timing.top", defaultValue = "20")
+    protected int timingTop = 20;
+
+    /**
+     * Time budget of this goal in milliseconds. A warning is issued if the goal takes longer.
+     * 0 means no budget.
+     */
+    @Parameter(property = "stapler.timing.budget", defaultValue = "0")
+    protected long timingBudget;
+
     @Override
-    public void execute() {
+    public void execute() throws MojoExecutionException {
+        report(r -> {
+            for (Resource root : project.getResources()) {
+                r.parseRecursively(new File(root.getDirectory()));
+            }
+        });
+    }
+
+    /**
+     * Computes the progress by letting {@code scan} feed the message directories to {@link L10nProgress},
+     * and writes it out.
+     */
+    void report(Consumer<L10nProgress> scan) throws MojoExecutionException {
+        TimingReport timings = new TimingReport("l10n-progress", timingTop, timing);
         L10nProgress r = new L10nProgress();
-        for (Resource root : project.getResources()) {
-            r.parseRecursively(new File(root.getDirectory()));
+        r.setTimings(timings);
+        r.setThreads(threads);
+        r.setIndex(FileTreeIndex.of(session, maxDepth, getLog()));
+        r.setKeyLevel(keyLevel || listKeys, listKeys);
+        r.setErrorHandler((file, e) -> getLog().warn("Failed to read " + file, e));
+
+        File snapshotFile = snapshot;
+        if (snapshotFile == null && incremental) {
+            snapshotFile = new File(project.getBasedir(), "target/l10n-progress.bin");
+        }
+        L10nSnapshot previous = null;
+        if (snapshotFile != null) {
+            previous = L10nSnapshot.load(snapshotFile, keyLevel || listKeys, getLog());
+            r.setSnapshot(previous);
+        }
+
+        String fmt = format.toLowerCase(Locale.ENGLISH);
+        if (!L10nProgressWriter.FORMATS.contains(fmt)) {
+            throw new MojoExecutionException(
+                    "Unknown format " + format + "; expected one of " + L10nProgressWriter.FORMATS);
+        }
+        File out = output;
+        if (out == null && !fmt.equals("hatena")) {
+            out = new File(project.getBasedir(), "target/l10n-progress." + fmt);
+        }
+
+        try {
+            Writer w;
+            if (out != null) {
+                out.getAbsoluteFile().getParentFile().mkdirs();
+                w = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8);
+            } else {
+                w = new OutputStreamWriter(System.out, Charset.defaultCharset());
+            }
+            try {
+                L10nProgressWriter writer = L10nProgressWriter.create(fmt, r, w, project.getBasedir().toPath());
+                r.setListener(m -> {
+                    try {
+                        writer.row(m);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                long start = System.nanoTime();
+                scan.accept(r);
+                timings.phase("parse", start);
+
+                start = System.nanoTime();
+                writer.finish();
+                timings.phase("render", start);
+            } finally {
+                if (out != null) {
+                    w.close();
+                } else {
+                    w.flush(); // but leave System.out open
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new MojoExecutionException("Failed to write " + (out != null ? out : "the report"), e);
+        }
+        if (out != null) {
+            getLog().info("Wrote " + out);
+        }
+
+        if (previous != null) {
+            reportProgress(previous, r.getTotals());
+            try {
+                previous.save(snapshotFile, r.getTotals(), history);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to write " + snapshotFile, e);
+            }
+        }
+
+        try {
+            File report = new File(project.getBasedir(), "target/stapler-timing-l10n-progress.txt");
+            timings.finish(report, timingBudget, getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write the timing report", e);
+        }
+    }
+
+    /**
+     * Logs the number of directories read, and the change of the total of each locale since the previous
+     * snapshot and since the oldest one kept.
+     */
+    private void reportProgress(L10nSnapshot previous, Map<String, Integer> totals) {
+        getLog().info("Read " + (previous.size() - previous.getHits()) + " of " + previous.size()
+                + " message directories, the others being unchanged since the previous run");
+        if (!previous.exists()) {
+            return;
+        }
+        List<L10nSnapshot.Totals> past = previous.getHistory();
+        L10nSnapshot.Totals first = past.get(0);
+        L10nSnapshot.Totals last = past.get(past.size() - 1);
+        Set<String> locales = new TreeSet<>(totals.keySet());
+        for (L10nSnapshot.Totals t : past) {
+            locales.addAll(t.counts.keySet());
+        }
+        if (first == last) {
+            getLog().info("Progress since " + Instant.ofEpochMilli(last.timestamp) + ":");
+        } else {
+            getLog().info("Progress since " + Instant.ofEpochMilli(last.timestamp) + ", and since "
+                    + Instant.ofEpochMilli(first.timestamp) + ":");
+        }
+        for (String locale : locales) {
+            int now = totals.getOrDefault(locale, 0);
+            String name = locale.isEmpty() ? "Messages" : locale;
+            String line = String.format("  %s: %d (%+d", name, now, now - last.counts.getOrDefault(locale, 0));
+            if (first != last) {
+                line += String.format(", %+d", now - first.counts.getOrDefault(locale, 0));
+            }
+            getLog().info(line + ")");
         }
-        System.out.println(r.toHatena());
     }
 }
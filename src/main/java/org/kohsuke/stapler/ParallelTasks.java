@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs independent per-file work on a fork-join pool while keeping the results in the input order,
+ * so that whatever is written from them doesn't depend on the scheduling.
+ */
+final class ParallelTasks {
+    private ParallelTasks() {}
+
+    interface IOFunction<T, R> {
+        R apply(T t) throws IOException;
+    }
+
+    /**
+     * Resolves the "threads" parameter of a mojo, where 0 or less means one thread per processor.
+     */
+    static int resolveThreads(int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Applies the function to all the items and returns the results in the same order as the items.
+     *
+     * @param threads
+     *      Number of worker threads. 1 runs everything on the calling thread.
+     */
+    static <T, R> List<R> map(int threads, List<T> items, IOFunction<? super T, ? extends R> f)
+            throws IOException {
+        List<R> results = new ArrayList<>(items.size());
+        threads = Math.min(resolveThreads(threads), items.size());
+        if (threads <= 1) {
+            for (T item : items) {
+                results.add(f.apply(item));
+            }
+            return results;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<? extends R>> tasks = new ArrayList<>(items.size());
+            for (T item : items) {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        return f.apply(item);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            for (ForkJoinTask<? extends R> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException().initCause(e);
+        } catch (ExecutionException e) {
+            // ForkJoinTask may wrap the exception from the worker thread once more, so look down the chain
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) t).getCause();
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.eclipse.aether.RepositorySystem;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Runs {@code stapler:jelly-taglibdoc}, {@code stapler:l10n} and {@code stapler:l10n-progress} together,
+ * walking the resource directories only once and parsing each Jelly file only once.
+ *
+ * <p>
+ * The SAX events of a tag file are fed both to the tag extraction of {@code jelly-taglibdoc} and
+ * to the property key extraction of {@code l10n}, and the message directories found on the same walk
+ * are handed to {@code l10n-progress}. The results are the same as running the goals one by one.
+ * With {@code stapler.incremental}, the goals share their caches with this one, and a Jelly file is
+ * only parsed if one of them needs it.
+ */
+@Mojo(name = "process", requiresDependencyResolution = ResolutionScope.COMPILE)
+public class ProcessMojo extends AbstractMojo {
+    static final List<String> GOALS = List.of("jelly-taglibdoc", "l10n", "l10n-progress");
+
+    /**
+     * The maven project.
+     */
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    protected MavenProject project;
+
+    /**
+     * The Maven session object.
+     */
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    protected MavenSession session;
+
+    /**
+     * Comma-separated goals to run, among {@code jelly-taglibdoc}, {@code l10n} and {@code l10n-progress}.
+     */
+    @Parameter(property = "stapler.process.goals", defaultValue = "jelly-taglibdoc,l10n,l10n-progress")
+    protected String goals = "jelly-taglibdoc,l10n,l10n-progress";
+
+    /**
+     * The locales to generate properties for, like {@code stapler:l10n}.
+     * If not specified, {@code l10n} is skipped.
+     */
+    @Parameter(property = "locale")
+    protected String locale;
+
+    /**
+     * Same as {@code patterns} of {@code stapler:jelly-taglibdoc}.
+     */
+    @Parameter(defaultValue = "${patterns}")
+    protected String[] patterns = new String[] {".*"};
+
+    /**
+     * Same as {@code excludePatterns} of {@code stapler:jelly-taglibdoc}.
+     */
+    @Parameter(property = "excludePatterns")
+    protected String[] excludePatterns = new String[0];
+
+    /**
+     * Number of threads used to parse Jelly files and to count messages. 0 or less means one per processor.
+     * The result is the same regardless of this setting.
+     */
+    @Parameter(property = "stapler.threads", defaultValue = "1")
+    protected int threads = 1;
+
+    /**
+     * How deep below each resource directory to look, where 1 means only the files directly in it.
+     * 0 or less means no limit.
+     * Symbolic links are followed, except those that point back to one of their own parent directories.
+     */
+    @Parameter(property = "stapler.maxDepth", defaultValue = "0")
+    protected int maxDepth;
+
+    /**
+     * If true, keep what was extracted from each Jelly file in the caches of {@code jelly-taglibdoc} and
+     * {@code l10n}, and the snapshot of {@code l10n-progress}, so that only what has changed since
+     * the previous build is read again. The caches are shared with those goals.
+     */
+    @Parameter(property = "stapler.incremental", defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * Same as {@code stapler.taglibIndex} of {@code stapler:jelly-taglibdoc}.
+     */
+    @Parameter(property = "stapler.taglibIndex", defaultValue = "false")
+    protected boolean writeIndex;
+
+    /**
+     * Same as {@code stapler.reportCache} of {@code stapler:jelly-taglibdoc}.
+     */
+    @Parameter(property = "stapler.reportCache", defaultValue = "false")
+    protected boolean reportCache;
+
+    /**
+     * If true, {@code l10n} only reports the properties that would be added, without writing anything.
+     */
+    @Parameter(property = "stapler.dryRun", defaultValue = "false")
+    protected boolean dryRun;
+
+    /**
+     * Output format of {@code l10n-progress}: {@code hatena}, {@code csv} or {@code json}.
+     */
+    @Parameter(property = "stapler.l10n.format", defaultValue = "hatena")
+    protected String format = "hatena";
+
+    /**
+     * File to write the result of {@code l10n-progress} to. See {@code stapler:l10n-progress}.
+     */
+    @Parameter(property = "stapler.l10n.output")
+    protected File output;
+
+    /**
+     * If true, {@code l10n-progress} compares the keys of each bundle. See {@code stapler:l10n-progress}.
+     */
+    @Parameter(property = "stapler.l10n.keys", defaultValue = "false")
+    protected boolean keyLevel;
+
+    /**
+     * If true, {@code l10n-progress} also lists the missing and obsolete keys.
+     */
+    @Parameter(property = "stapler.l10n.listKeys", defaultValue = "false")
+    protected boolean listKeys;
+
+    /**
+     * Same as {@code stapler.l10n.snapshot} of {@code stapler:l10n-progress}.
+     */
+    @Parameter(property = "stapler.l10n.snapshot")
+    protected File snapshot;
+
+    /**
+     * Same as {@code stapler.l10n.history} of {@code stapler:l10n-progress}.
+     */
+    @Parameter(property = "stapler.l10n.history", defaultValue = "10")
+    protected int history = 10;
+
+    /**
+     * If true, write {@code target/stapler-timing-process.txt} with the time spent in each phase
+     * and the slowest files.
+     */
+    @Parameter(property = "stapler.timing", defaultValue = "false")
+    protected boolean timing;
+
+    /**
+     * Number of the slowest files listed in the timing report.
+     */
+    @Parameter(property = "stapler.timing.top", defaultValue = "20")
+    protected int timingTop = 20;
+
+    /**
+     * Time budget of this goal in milliseconds. A warning is issued if the goal takes longer.
+     * 0 means no budget.
+     */
+    @Parameter(property = "stapler.timing.budget", defaultValue = "0")
+    protected long timingBudget;
+
+    @Component
+    private ArtifactFactory factory;
+
+    @Component
+    private RepositorySystem repositorySystem;
+
+    @Component
+    MavenProjectHelper helper;
+
+    private TimingReport timings = TimingReport.DISABLED;
+
+    /**
+     * Non-null in the incremental mode while tag libraries are looked for.
+     */
+    private TagFileCache tagCache;
+
+    /**
+     * Non-null in the incremental mode while {@code l10n} runs.
+     */
+    private ViewKeyCache keyCache;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        Set<String> run = new LinkedHashSet<>();
+        for (String g : goals.split(",")) {
+            g = g.trim().toLowerCase(Locale.ENGLISH);
+            if (g.isEmpty()) {
+                continue;
+            }
+            if (!GOALS.contains(g)) {
+                throw new MojoExecutionException("Unknown goal " + g + "; expected some of " + GOALS);
+            }
+            run.add(g);
+        }
+        if (run.contains("l10n") && locale == null) {
+            getLog().info("No locale is given; skipping l10n");
+            run.remove("l10n");
+        }
+
+        timings = new TimingReport("process", timingTop, timing);
+        try {
+            long start = System.nanoTime();
+            UriFilter filter = run.contains("jelly-taglibdoc") ? new UriFilter(patterns, excludePatterns) : null;
+            Walk walk = new Walk(FileTreeIndex.of(session, maxDepth, getLog()), filter);
+            for (Resource res : project.getResources()) {
+                walk.visit(new File(res.getDirectory()), "", walk.filter != null);
+            }
+            timings.phase("walk", start);
+
+            LocalizerMojo localizer = null;
+            if (run.contains("l10n")) {
+                localizer = new LocalizerMojo();
+                localizer.setLog(getLog());
+                localizer.project = project;
+                localizer.session = session;
+                localizer.maxDepth = maxDepth;
+                localizer.threads = threads;
+                localizer.locale = locale;
+                localizer.dryRun = dryRun;
+                if (!localizer.prepare(walk.views)) {
+                    localizer = null;
+                }
+            }
+
+            File tagCacheFile = new File(project.getBasedir(), "target/taglib-cache.bin");
+            File keyCacheFile = new File(project.getBasedir(), "target/l10n-cache.bin");
+            if (incremental && walk.filter != null) {
+                tagCache = TagFileCache.load(tagCacheFile, getLog());
+            }
+            if (incremental && localizer != null) {
+                keyCache = ViewKeyCache.load(keyCacheFile, getLog());
+                localizer.cache = keyCache;
+            }
+
+            start = System.nanoTime();
+            boolean findKeys = localizer != null;
+            List<File> files = findKeys ? walk.views : walk.getTagFiles();
+            List<Parsed> parsed = ParallelTasks.map(threads, files, f -> parse(f, findKeys, walk.tagFiles.contains(f)));
+            timings.phase("parse", start);
+
+            if (walk.filter != null) {
+                start = System.nanoTime();
+                generateTaglibs(walk, files, parsed);
+                if (tagCache != null) {
+                    getLog().info(
+                            "Reused " + tagCache.getHits() + " of " + tagCache.size() + " tag files from the cache");
+                    tagCache.save(tagCacheFile);
+                }
+                timings.phase("jelly-taglibdoc", start);
+            }
+
+            if (localizer != null) {
+                start = System.nanoTime();
+                List<Set<String>> props = new ArrayList<>(parsed.size());
+                for (Parsed p : parsed) {
+                    props.add(p.keys);
+                }
+                localizer.update(walk.views, props);
+                if (keyCache != null) {
+                    getLog().info("Reused " + keyCache.getHits() + " of " + keyCache.size() + " views from the cache");
+                    keyCache.save(keyCacheFile);
+                }
+                timings.phase("l10n", start);
+            }
+
+            if (run.contains("l10n-progress")) {
+                start = System.nanoTime();
+                LocalizerProgressMojo progress = new LocalizerProgressMojo();
+                progress.setLog(getLog());
+                progress.project = project;
+                progress.session = session;
+                progress.maxDepth = maxDepth;
+                progress.threads = threads;
+                progress.format = format;
+                progress.output = output;
+                progress.keyLevel = keyLevel;
+                progress.listKeys = listKeys;
+                progress.incremental = incremental;
+                progress.snapshot = snapshot;
+                progress.history = history;
+                progress.report(r -> r.parse(walk.messageDirs));
+                timings.phase("l10n-progress", start);
+            }
+
+            timings.finish(new File(project.getBasedir(), "target/stapler-timing-process.txt"), timingBudget, getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } finally {
+            timings = TimingReport.DISABLED;
+            tagCache = null;
+            keyCache = null;
+        }
+    }
+
+    /**
+     * What was extracted from a Jelly file.
+     */
+    private static final class Parsed {
+        /**
+         * Property keys used in the file, in order, or empty if they weren't looked for.
+         */
+        final Set<String> keys;
+        /**
+         * Null unless the file is a tag file.
+         */
+        final TagDescriptor tag;
+
+        Parsed(Set<String> keys, TagDescriptor tag) {
+            this.keys = keys;
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Gets everything that's needed from a Jelly file, from the caches if they have it,
+     * parsing the file at most once otherwise. Can be called from any thread.
+     */
+    private Parsed parse(File file, boolean findKeys, boolean tagFile) throws IOException {
+        long start = System.nanoTime();
+        Parsed[] read = new Parsed[1];
+        TagFileCache.Parser tagParser = f -> read(read, f, findKeys, tagFile).tag;
+        ViewKeyCache.Parser keyParser = f -> read(read, f, findKeys, tagFile).keys;
+        TagDescriptor tag = null;
+        if (tagFile) {
+            tag = tagCache != null ? tagCache.get(file, tagParser) : tagParser.parse(file);
+        }
+        Set<String> keys = Set.of();
+        if (findKeys) {
+            keys = keyCache != null ? keyCache.get(file, keyParser) : keyParser.parse(file);
+        }
+        timings.file(file, start, keys.size());
+        return new Parsed(keys, tag);
+    }
+
+    /**
+     * Parses a Jelly file for everything that's needed from it, unless it has been already.
+     *
+     * @param read
+     *      Holds the result of the parse once it's done.
+     */
+    private static Parsed read(Parsed[] read, File file, boolean findKeys, boolean tagFile) throws IOException {
+        if (read[0] == null) {
+            Set<String> keys = new LinkedHashSet<>();
+            TagFileExtractor extractor = tagFile ? TagFileExtractor.of(file) : null;
+            List<DefaultHandler> handlers = new ArrayList<>(2);
+            if (findKeys) {
+                handlers.add(new LocalizerMojo.KeyFinder(keys::add));
+            }
+            if (extractor != null) {
+                handlers.add(extractor);
+            }
+            TeeHandler.parse(file, handlers);
+            read[0] = new Parsed(keys, extractor != null ? extractor.getResult() : null);
+        }
+        return read[0];
+    }
+
+    /**
+     * Puts the parsed tag files into their libraries, and writes {@code taglib.xml} from them.
+     */
+    private void generateTaglibs(Walk walk, List<File> files, List<Parsed> parsed) throws MojoExecutionException {
+        Map<File, TagDescriptor> tags = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (parsed.get(i).tag != null) {
+                tags.put(files.get(i), parsed.get(i).tag);
+            }
+        }
+        for (TaglibDocMojo.TagLibrary lib : walk.libs) {
+            getLog().info("Processing " + lib.dir);
+            lib.tags = new ArrayList<>(lib.tagFiles.size());
+            for (File f : lib.tagFiles) {
+                lib.tags.add(tags.get(f));
+            }
+        }
+
+        TaglibDocMojo taglib = new TaglibDocMojo();
+        taglib.setLog(getLog());
+        taglib.project = project;
+        taglib.session = session;
+        taglib.factory = factory;
+        taglib.repositorySystem = repositorySystem;
+        taglib.helper = helper;
+        taglib.patterns = patterns;
+        taglib.excludePatterns = excludePatterns;
+        taglib.threads = threads;
+        taglib.maxDepth = maxDepth;
+        taglib.incremental = incremental;
+        taglib.writeIndex = writeIndex;
+        taglib.reportCache = reportCache;
+        taglib.generate(walk.libs);
+    }
+
+    /**
+     * Everything that the goals are interested in, found in a single walk over the resource directories.
+     * Directories are visited in the order of their names, in the same order as each goal would visit them.
+     */
+    private static final class Walk {
+        private final FileTreeIndex index;
+
+        /**
+         * Null unless tag libraries are looked for.
+         */
+        final UriFilter filter;
+
+        final List<TaglibDocMojo.TagLibrary> libs = new ArrayList<>();
+        final Set<File> tagFiles = new HashSet<>();
+        /**
+         * All the Jelly files.
+         */
+        final List<File> views = new ArrayList<>();
+        /**
+         * Directories that have {@code Messages.properties}.
+         */
+        final List<File> messageDirs = new ArrayList<>();
+
+        Walk(FileTreeIndex index, UriFilter filter) {
+            this.index = index;
+            this.filter = filter;
+        }
+
+        /**
+         * @param libsWithin
+         *      True if tag libraries may be found in this directory or below.
+         */
+        void visit(File dir, String uri, boolean libsWithin) throws IOException {
+            List<FileTreeIndex.Entry> children = index.list(dir);
+            if (children == null) {
+                return;
+            }
+            List<File> jelly = new ArrayList<>();
+            boolean marker = false;
+            for (FileTreeIndex.Entry child : children) {
+                String name = child.getName();
+                if (name.equals("taglib")) {
+                    marker = true;
+                } else if (TaglibDocMojo.isTagFile(name, child.isDirectory())) {
+                    jelly.add(child.file);
+                }
+            }
+            if (libsWithin && marker && filter.matches(uri)) {
+                libs.add(new TaglibDocMojo.TagLibrary(dir, uri, jelly));
+                tagFiles.addAll(jelly);
+            }
+
+            for (FileTreeIndex.Entry child : children) {
+                String name = child.getName();
+                if (child.isDirectory()) {
+                    String subUri = uri + '/' + name;
+                    visit(child.file, subUri, libsWithin && filter.mayMatchWithin(subUri));
+                } else if (name.endsWith(".jelly")) {
+                    views.add(child.file);
+                } else if (name.equals("Messages.properties") && child.isFile()) {
+                    messageDirs.add(dir);
+                }
+            }
+        }
+
+        /**
+         * Tag files of all the libraries, in the order of the walk.
+         */
+        List<File> getTagFiles() {
+            List<File> r = new ArrayList<>();
+            for (File f : views) {
+                if (tagFiles.contains(f)) {
+                    r.add(f);
+                }
+            }
+            return r;
+        }
+    }
+}
@@ -24,7 +24,6 @@ package org.kohsuke.stapler;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
@@ -38,10 +37,12 @@ public class Properties extends java.util.Properties {
 
     /**
      * Loads from the file.
+     *
+     * <p>
+     * This is the same as {@link #load(java.io.InputStream)}, except that the file is read in bulk
+     * (or memory-mapped if it's large) and decoded straight from the buffer.
      */
     public Properties(File src) throws IOException {
-        try (FileInputStream in = new FileInputStream(src)) {
-            load(in);
-        }
+        PropertiesScanner.load(PropertiesScanner.read(src), this::put);
     }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Reads properties files straight from a {@link ByteBuffer}, optionally without decoding or storing the values.
+ *
+ * <p>
+ * The input is read as ISO-8859-1, following the same rules as {@link java.util.Properties#load(java.io.InputStream)}:
+ * comment lines start with '#' or '!', a line that ends with an odd number of backslashes continues
+ * on the next line, the key ends at the first unescaped '=', ':' or white space, and {@code \t}, {@code \n},
+ * {@code \r}, {@code \f} and {@code \\uxxxx} escapes are decoded. When only the keys are asked for,
+ * values are skipped without being decoded, so a malformed {@code \\uxxxx} escape in a value isn't an error.
+ */
+final class PropertiesScanner {
+    /**
+     * Files at least this large are memory-mapped by {@link #read(File)}. Mapping has a fixed cost
+     * that only pays off once there's enough to read.
+     */
+    static final int MAP_THRESHOLD = 64 * 1024;
+
+    private PropertiesScanner() {}
+
+    /**
+     * Reads the whole file, with a single bulk read for small files and memory-mapping for large ones.
+     *
+     * @return
+     *      Buffer with the file content between position 0 and the limit.
+     */
+    static ByteBuffer read(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size >= MAP_THRESHOLD) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {
+                // keep reading until the end
+            }
+            buf.flip();
+            return buf;
+        }
+    }
+
+    /**
+     * Reports the keys in the order they appear, including duplicates.
+     *
+     * @param buf
+     *      Content of the properties file between position 0 and the limit.
+     */
+    static void scan(ByteBuffer buf, Consumer<String> keys) {
+        scan(buf, keys, null);
+    }
+
+    /**
+     * Reports the entries in the order they appear, including duplicates.
+     *
+     * @param buf
+     *      Content of the properties file between position 0 and the limit.
+     */
+    static void load(ByteBuffer buf, BiConsumer<String, String> entries) {
+        scan(buf, null, entries);
+    }
+
+    private static void scan(ByteBuffer buf, Consumer<String> keys, BiConsumer<String, String> entries) {
+        StringBuilder sb = new StringBuilder();
+        int n = buf.limit();
+        int i = 0;
+        while (i < n) {
+            byte c = buf.get(i);
+            if (isWhitespace(c) || isLineBreak(c)) {
+                i++;
+                continue;
+            }
+            if (c == '\\' && i + 1 < n && isLineBreak(buf.get(i + 1))) {
+                // a continuation with nothing before it is as good as a blank line,
+                // except that Properties.load() reports an empty entry if the file ends right there
+                if (i + 2 == n) {
+                    report("", "", keys, entries);
+                }
+                i = skipLineBreak(buf, i + 1);
+                continue;
+            }
+            if (c == '#' || c == '!') {
+                // comments don't continue on the next line
+                while (i < n && !isLineBreak(buf.get(i))) {
+                    i++;
+                }
+                continue;
+            }
+
+            sb.setLength(0);
+            i = decode(buf, i, sb, true);
+            String key = sb.toString();
+            if (entries == null) {
+                keys.accept(key);
+                i = skipValue(buf, i);
+            } else {
+                sb.setLength(0);
+                i = decode(buf, skipSeparator(buf, i), sb, false);
+                entries.accept(key, sb.toString());
+            }
+        }
+    }
+
+    private static void report(String key, String value, Consumer<String> keys, BiConsumer<String, String> entries) {
+        if (entries == null) {
+            keys.accept(key);
+        } else {
+            entries.accept(key, value);
+        }
+    }
+
+    /**
+     * Lists the distinct keys in the order they first appear.
+     */
+    static Set<String> keys(ByteBuffer buf) {
+        Set<String> keys = new LinkedHashSet<>();
+        scan(buf, keys::add);
+        return keys;
+    }
+
+    /**
+     * Counts the distinct keys, which is the same as the size of the loaded {@link java.util.Properties}.
+     */
+    static int count(ByteBuffer buf) {
+        Set<String> keys = new HashSet<>();
+        scan(buf, keys::add);
+        return keys.size();
+    }
+
+    /**
+     * Decodes a key or a value into {@code out}.
+     *
+     * @param key
+     *      If true, stop at the first unescaped separator or white space.
+     *      Otherwise stop at the end of the logical line.
+     * @return
+     *      Index of the character that ended the key or the value.
+     */
+    private static int decode(ByteBuffer buf, int i, StringBuilder out, boolean key) {
+        int n = buf.limit();
+        while (i < n) {
+            byte c = buf.get(i);
+            if (c == '\\') {
+                if (i + 1 == n) {
+                    return n; // a backslash at the end of the file is dropped
+                }
+                byte e = buf.get(i + 1);
+                if (isLineBreak(e)) {
+                    i = skipLineBreak(buf, i + 1);
+                    continue;
+                }
+                i += 2;
+                switch (e) {
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'u':
+                        int value = 0;
+                        for (int digits = 0; digits < 4; ) {
+                            if (i + 1 < n && buf.get(i) == '\\' && isLineBreak(buf.get(i + 1))) {
+                                // lines are joined before escapes are processed
+                                i = skipLineBreak(buf, i + 1);
+                                continue;
+                            }
+                            int digit = i < n ? Character.digit((char) (buf.get(i) & 0xFF), 16) : -1;
+                            if (digit < 0) {
+                                throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                            }
+                            value = value * 16 + digit;
+                            digits++;
+                            i++;
+                        }
+                        out.append((char) value);
+                        break;
+                    default:
+                        out.append((char) (e & 0xFF));
+                        break;
+                }
+                continue;
+            }
+            if (isLineBreak(c) || key && (c == '=' || c == ':' || isWhitespace(c))) {
+                return i;
+            }
+            out.append((char) (c & 0xFF));
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips the white space and at most one '=' or ':' between a key and its value.
+     */
+    private static int skipSeparator(ByteBuffer buf, int i) {
+        int n = buf.limit();
+        boolean separator = false;
+        while (i < n) {
+            byte c = buf.get(i);
+            if (isWhitespace(c)) {
+                i++;
+            } else if (c == '\\' && i + 1 < n && isLineBreak(buf.get(i + 1))) {
+                i = skipLineBreak(buf, i + 1);
+            } else if (!separator && (c == '=' || c == ':')) {
+                separator = true;
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Skips the rest of the logical line, including continuation lines.
+     *
+     * @return
+     *      Index of the line break that ends the logical line, or the limit.
+     */
+    private static int skipValue(ByteBuffer buf, int i) {
+        int n = buf.limit();
+        boolean escaped = false;
+        while (i < n) {
+            byte c = buf.get(i);
+            if (isLineBreak(c)) {
+                if (!escaped) {
+                    return i;
+                }
+                i = skipLineBreak(buf, i);
+                escaped = false;
+                continue;
+            }
+            escaped = c == '\\' && !escaped;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a line break and the white space at the beginning of the next line.
+     */
+    private static int skipLineBreak(ByteBuffer buf, int i) {
+        int n = buf.limit();
+        if (buf.get(i) == '\r' && i + 1 < n && buf.get(i + 1) == '\n') {
+            i++;
+        }
+        i++;
+        while (i < n && isWhitespace(buf.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isLineBreak(byte c) {
+        return c == '\r' || c == '\n';
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.List;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkFactory;
+
+/**
+ * Remembers what a report sent to its {@link Sink}s, so that an unchanged report
+ * can be replayed from disk instead of being rendered again.
+ *
+ * <p>
+ * The main sink and every sink obtained from the {@link SinkFactory} are wrapped in proxies
+ * that record each call and forward it. Calls are stored in the order they were made,
+ * with arguments limited to strings, primitives, {@code int[]}, files and attribute sets.
+ * If the report passes anything else, the rendering is simply not cached.
+ *
+ * <p>
+ * There's one cache file per locale and output directory, which holds the key
+ * (the hash of {@code taglib.xml}) it was recorded for.
+ */
+final class ReportCache {
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte INT_ARRAY = 4;
+    private static final byte ATTRIBUTES = 5;
+    private static final byte FILE = 6;
+
+    private final File dir;
+
+    ReportCache(File dir) {
+        this.dir = dir;
+    }
+
+    private File getFile(String name) {
+        byte[] digest = Fingerprint.newDigest().digest(name.getBytes(StandardCharsets.UTF_8));
+        return new File(dir, HexFormat.of().formatHex(digest) + ".bin");
+    }
+
+    /**
+     * Sends the recorded calls to the given sinks, if there's a recording for the key.
+     *
+     * @param name
+     *      Identifies the rendering, such as locale and output directory.
+     * @param key
+     *      Identifies the content being rendered.
+     * @return
+     *      false if nothing was recorded for the key, in which case nothing was sent to the sinks.
+     */
+    boolean replay(String name, String key, Sink sink, SinkFactory sinkFactory) throws IOException {
+        List<Call> calls;
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(getFile(name).toPath())))) {
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) {
+                return false;
+            }
+            int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+            calls = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                calls.add(Call.readFrom(in));
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        List<Object> targets = new ArrayList<>();
+        targets.add(sink);
+        try {
+            for (Call c : calls) {
+                if (c.target == FACTORY) {
+                    targets.add(c.invoke(SinkFactory.class, sinkFactory));
+                } else {
+                    c.invoke(Sink.class, targets.get(c.target));
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Failed to replay the cached report", e);
+        }
+        return true;
+    }
+
+    /**
+     * Starts recording a new rendering.
+     */
+    Recording record(Sink sink, SinkFactory sinkFactory) {
+        return new Recording(sink, sinkFactory);
+    }
+
+    /**
+     * Target of a {@link Call} made to the sink factory, as opposed to an index of the sink.
+     */
+    private static final int FACTORY = -1;
+
+    /**
+     * Method call on a sink or on the sink factory.
+     */
+    private static final class Call {
+        /**
+         * {@link #FACTORY}, 0 for the main sink, or N for the sink created by the Nth factory call.
+         */
+        final int target;
+
+        final String method;
+        final String[] parameterTypes;
+        final Object[] args;
+
+        Call(int target, Method m, Object[] args) {
+            this.target = target;
+            this.method = m.getName();
+            Class<?>[] types = m.getParameterTypes();
+            this.parameterTypes = new String[types.length];
+            for (int i = 0; i < types.length; i++) {
+                parameterTypes[i] = types[i].getName();
+            }
+            this.args = args != null ? args : new Object[0];
+        }
+
+        private Call(int target, String method, String[] parameterTypes, Object[] args) {
+            this.target = target;
+            this.method = method;
+            this.parameterTypes = parameterTypes;
+            this.args = args;
+        }
+
+        /**
+         * Can all the arguments be written to disk?
+         */
+        boolean isStorable() {
+            for (Object a : args) {
+                if (!(a == null
+                        || a instanceof String
+                        || a instanceof Integer
+                        || a instanceof Boolean
+                        || a instanceof int[]
+                        || a instanceof AttributeSet && isStorable((AttributeSet) a)
+                        || a instanceof File)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Attribute sets are stored as plain string pairs, so anything else in them, like a nested set
+         * or a resolve parent, would be replayed differently.
+         */
+        private static boolean isStorable(AttributeSet atts) {
+            if (atts.getResolveParent() != null) {
+                return false;
+            }
+            for (Enumeration<?> e = atts.getAttributeNames(); e.hasMoreElements(); ) {
+                Object name = e.nextElement();
+                if (!(name instanceof String) || !(atts.getAttribute(name) instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Object invoke(Class<?> type, Object target) throws ReflectiveOperationException {
+            Class<?>[] types = new Class<?>[parameterTypes.length];
+            Object[] actual = new Object[args.length];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = resolve(type, parameterTypes[i]);
+                actual[i] = args[i] instanceof AttributeSet ? adapt((AttributeSet) args[i], types[i]) : args[i];
+            }
+            try {
+                return type.getMethod(method, types).invoke(target, actual);
+            } catch (InvocationTargetException e) {
+                Throwable t = e.getCause();
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                throw e;
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(target);
+            out.writeUTF(method);
+            out.writeInt(parameterTypes.length);
+            for (int i = 0; i < parameterTypes.length; i++) {
+                out.writeUTF(parameterTypes[i]);
+                writeArg(out, args[i]);
+            }
+        }
+
+        static Call readFrom(DataInputStream in) throws IOException {
+            int target = in.readInt();
+            String method = in.readUTF();
+            int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+            String[] types = new String[n];
+            Object[] args = new Object[n];
+            for (int i = 0; i < n; i++) {
+                types[i] = in.readUTF();
+                args[i] = readArg(in);
+            }
+            return new Call(target, method, types, args);
+        }
+    }
+
+    private static void writeArg(DataOutputStream out, Object a) throws IOException {
+        if (a == null) {
+            out.writeByte(NULL);
+        } else if (a instanceof String) {
+            out.writeByte(STRING);
+            BinaryIO.writeString(out, (String) a);
+        } else if (a instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) a);
+        } else if (a instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) a);
+        } else if (a instanceof int[]) {
+            int[] values = (int[]) a;
+            out.writeByte(INT_ARRAY);
+            out.writeInt(values.length);
+            for (int v : values) {
+                out.writeInt(v);
+            }
+        } else if (a instanceof AttributeSet) {
+            AttributeSet atts = (AttributeSet) a;
+            out.writeByte(ATTRIBUTES);
+            out.writeInt(atts.getAttributeCount());
+            for (Enumeration<?> e = atts.getAttributeNames(); e.hasMoreElements(); ) {
+                Object name = e.nextElement();
+                BinaryIO.writeString(out, (String) name);
+                BinaryIO.writeString(out, (String) atts.getAttribute(name));
+            }
+        } else {
+            out.writeByte(FILE);
+            BinaryIO.writeString(out, ((File) a).getPath());
+        }
+    }
+
+    private static Object readArg(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return BinaryIO.readString(in);
+            case INT:
+                return in.readInt();
+            case BOOLEAN:
+                return in.readBoolean();
+            case INT_ARRAY:
+                int[] values = new int[BinaryIO.readLength(in, BinaryIO.MAX_LENGTH)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = in.readInt();
+                }
+                return values;
+            case ATTRIBUTES:
+                SimpleAttributeSet atts = new SimpleAttributeSet();
+                int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+                for (int i = 0; i < n; i++) {
+                    atts.addAttribute(BinaryIO.readString(in), BinaryIO.readString(in));
+                }
+                return atts;
+            case FILE:
+                return new File(BinaryIO.readString(in));
+            default:
+                throw new IOException("Unexpected argument type " + type);
+        }
+    }
+
+    private static Class<?> resolve(Class<?> context, String name) throws ClassNotFoundException {
+        switch (name) {
+            case "int":
+                return int.class;
+            case "boolean":
+                return boolean.class;
+            default:
+                return Class.forName(name, false, context.getClassLoader());
+        }
+    }
+
+    /**
+     * Turns an attribute set read from disk into what the sink method takes,
+     * which is typically a sub-interface of {@link MutableAttributeSet}.
+     */
+    private static Object adapt(AttributeSet atts, Class<?> type) {
+        if (type.isInstance(atts) || !type.isInterface()) {
+            return atts;
+        }
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, m, args) -> {
+            try {
+                return m.invoke(atts, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * Sinks that forward to the real ones while recording the calls.
+     */
+    final class Recording {
+        /**
+         * Calls written out as they are made, since the report may change an argument after passing it,
+         * such as an attribute set reused for the next element.
+         */
+        private final ByteArrayOutputStream calls = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(calls);
+
+        private int count;
+
+        /**
+         * False once a call has been made with an argument that can't be stored.
+         */
+        private boolean storable = true;
+
+        private int sinks = 1;
+        private final Sink sink;
+        private final SinkFactory sinkFactory;
+
+        Recording(Sink sink, SinkFactory sinkFactory) {
+            this.sink = wrap(Sink.class, sink, 0);
+            this.sinkFactory = sinkFactory != null ? wrap(SinkFactory.class, sinkFactory, FACTORY) : null;
+        }
+
+        Sink getSink() {
+            return sink;
+        }
+
+        SinkFactory getSinkFactory() {
+            return sinkFactory;
+        }
+
+        private <T> T wrap(Class<T> type, T target, int id) {
+            InvocationHandler h = (proxy, m, args) -> {
+                if (m.getDeclaringClass() == Object.class) {
+                    return m.invoke(target, args);
+                }
+                synchronized (calls) {
+                    record(new Call(id, m, args));
+                }
+                Object r;
+                try {
+                    r = m.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (id == FACTORY && r instanceof Sink) {
+                    synchronized (calls) {
+                        r = wrap(Sink.class, (Sink) r, sinks++);
+                    }
+                }
+                return r;
+            };
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, h));
+        }
+
+        private void record(Call c) {
+            if (!storable) {
+                return;
+            }
+            if (!c.isStorable()) {
+                storable = false;
+                calls.reset();
+                return;
+            }
+            try {
+                c.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // impossible, as it's all in memory
+            }
+            count++;
+        }
+
+        /**
+         * Saves the recording.
+         *
+         * @return
+         *      false if the recording can't be stored.
+         */
+        boolean save(String name, String key) throws IOException {
+            synchronized (calls) {
+                if (!storable) {
+                    return false;
+                }
+                File f = getFile(name);
+                try (AtomicFileOutput af = new AtomicFileOutput(f)) {
+                    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(af.getStream()));
+                    dos.writeInt(FORMAT_VERSION);
+                    dos.writeUTF(key);
+                    dos.writeInt(count);
+                    calls.writeTo(dos);
+                    dos.flush();
+                    af.commit();
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jvnet.maven.jellydoc.Attribute;
+import org.jvnet.maven.jellydoc.Tag;
+
+/**
+ * Immutable information extracted from a single tag file.
+ *
+ * <p>
+ * This is what {@link TaglibDocMojo} knows about a tag once the Jelly script is parsed,
+ * so that it can be cached and written to {@code taglib.xml} later.
+ */
+final class TagDescriptor {
+    /**
+     * Tag name, which is the file name minus ".jelly".
+     */
+    final String name;
+
+    /**
+     * Text of {@code <s:documentation>}, or "" if the tag isn't documented.
+     */
+    final String doc;
+
+    /**
+     * True if the tag never invokes its body.
+     */
+    final boolean noContent;
+
+    final List<AttributeDescriptor> attributes;
+
+    TagDescriptor(String name, String doc, boolean noContent, List<AttributeDescriptor> attributes) {
+        this.name = name;
+        this.doc = doc;
+        this.noContent = noContent;
+        this.attributes = Collections.unmodifiableList(new ArrayList<>(attributes));
+    }
+
+    /**
+     * Writes this tag to {@code taglib.xml}.
+     */
+    void write(Tag tag) {
+        tag.name(name);
+        if (noContent) {
+            tag.noContent(true);
+        }
+        tag.doc(doc);
+        for (AttributeDescriptor a : attributes) {
+            a.write(tag.attribute());
+        }
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        BinaryIO.writeString(out, name);
+        BinaryIO.writeString(out, doc);
+        out.writeBoolean(noContent);
+        out.writeInt(attributes.size());
+        for (AttributeDescriptor a : attributes) {
+            a.writeTo(out);
+        }
+    }
+
+    static TagDescriptor readFrom(DataInput in) throws IOException {
+        String name = BinaryIO.readString(in);
+        String doc = BinaryIO.readString(in);
+        boolean noContent = in.readBoolean();
+        int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+        List<AttributeDescriptor> attributes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            attributes.add(AttributeDescriptor.readFrom(in));
+        }
+        return new TagDescriptor(name, doc, noContent, attributes);
+    }
+
+    /**
+     * {@code <s:attribute>} of a tag.
+     */
+    static final class AttributeDescriptor {
+        /**
+         * XML attributes of {@code <s:attribute>}, such as "name" and "use", in the document order.
+         */
+        final Map<String, String> attributes;
+
+        final String doc;
+
+        AttributeDescriptor(Map<String, String> attributes, String doc) {
+            this.attributes = Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+            this.doc = doc;
+        }
+
+        void write(Attribute aw) {
+            for (Map.Entry<String, String> e : attributes.entrySet()) {
+                aw._attribute(e.getKey(), e.getValue());
+            }
+            aw.doc(doc);
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(attributes.size());
+            for (Map.Entry<String, String> e : attributes.entrySet()) {
+                BinaryIO.writeString(out, e.getKey());
+                BinaryIO.writeString(out, e.getValue());
+            }
+            BinaryIO.writeString(out, doc);
+        }
+
+        static AttributeDescriptor readFrom(DataInput in) throws IOException {
+            int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+            Map<String, String> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                attributes.put(BinaryIO.readString(in), BinaryIO.readString(in));
+            }
+            return new AttributeDescriptor(attributes, BinaryIO.readString(in));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Persisted {@link TagDescriptor}s from the previous build, so that {@link TaglibDocMojo}
+ * only needs to parse tag files that have changed.
+ *
+ * <p>
+ * Entries are keyed by the absolute path of the tag file. Only the entries that are looked up
+ * during the current build are saved, so tag files that were deleted drop out of the cache.
+ *
+ * <p>
+ * {@link #get(File, Parser)} can be called from multiple threads concurrently.
+ */
+final class TagFileCache {
+    /**
+     * Bump this whenever the file format or the information in {@link TagDescriptor} changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private TagFileCache(Map<String, Entry> previous) {
+        this.previous = previous;
+    }
+
+    static final class Entry {
+        final Fingerprint fingerprint;
+        final TagDescriptor tag;
+
+        Entry(Fingerprint fingerprint, TagDescriptor tag) {
+            this.fingerprint = fingerprint;
+            this.tag = tag;
+        }
+    }
+
+    interface Parser {
+        TagDescriptor parse(File tagFile) throws IOException;
+    }
+
+    /**
+     * Returns the descriptor of the given tag file, from the cache if the file is unchanged,
+     * or by parsing it otherwise.
+     */
+    TagDescriptor get(File tagFile, Parser parser) throws IOException {
+        String key = tagFile.getAbsolutePath();
+        Entry e = previous.get(key);
+        Fingerprint fp = Fingerprint.of(tagFile, e != null ? e.fingerprint : null);
+        if (e != null && fp.sameContent(e.fingerprint)) {
+            hits.incrementAndGet();
+            current.put(key, new Entry(fp, e.tag));
+            return e.tag;
+        }
+        TagDescriptor tag = parser.parse(tagFile);
+        current.put(key, new Entry(fp, tag));
+        return tag;
+    }
+
+    /**
+     * Number of tag files served from the cache so far.
+     */
+    int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of tag files looked up so far.
+     */
+    int size() {
+        return current.size();
+    }
+
+    /**
+     * Loads the cache, or returns an empty one if the cache file is missing or unusable.
+     */
+    static TagFileCache load(File file, Log log) {
+        Map<String, Entry> entries = new HashMap<>();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() == FORMAT_VERSION) {
+                int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+                for (int i = 0; i < n; i++) {
+                    String key = BinaryIO.readString(in);
+                    Fingerprint fp = Fingerprint.readFrom(in);
+                    entries.put(key, new Entry(fp, TagDescriptor.readFrom(in)));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first build
+        } catch (IOException e) {
+            log.warn("Ignoring corrupted tag file cache " + file, e);
+            entries.clear();
+        }
+        return new TagFileCache(entries);
+    }
+
+    /**
+     * Writes the entries used in this build to the given file.
+     */
+    void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                BinaryIO.writeString(out, e.getKey());
+                e.getValue().fingerprint.writeTo(out);
+                e.getValue().tag.writeTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Extracts {@link TagDescriptor} from a tag file in a single streaming pass.
+ *
+ * <p>
+ * This picks up the same information as the XPath queries {@code .//s:documentation},
+ * {@code s:attribute} (relative to the documentation) and {@code //d:invokeBody},
+ * without building a DOM tree. Only the text directly inside the documentation
+ * and attribute elements counts, just like {@code Element.getText()} in dom4j.
+ */
+final class TagFileExtractor extends DefaultHandler {
+    private static final String STAPLER_NS = "jelly:stapler";
+    private static final String DEFINE_NS = "jelly:define";
+
+    private final String name;
+
+    /**
+     * Current element depth. The root element is at depth 1.
+     */
+    private int depth;
+
+    /**
+     * Depth of the first {@code <s:documentation>}, or 0 if we aren't inside it.
+     */
+    private int docDepth;
+
+    private boolean docSeen;
+    private boolean invokeBody;
+
+    private final StringBuilder doc = new StringBuilder();
+    private final List<TagDescriptor.AttributeDescriptor> attributes = new ArrayList<>();
+
+    /**
+     * Non-null while inside {@code <s:attribute>} that's directly in the documentation.
+     */
+    private Map<String, String> attribute;
+
+    private final StringBuilder attributeDoc = new StringBuilder();
+
+    /**
+     * @param name
+     *      Name of the tag.
+     */
+    TagFileExtractor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * True once nothing in the rest of the document can change {@link #getResult()}.
+     */
+    boolean isComplete() {
+        return docSeen && docDepth == 0 && invokeBody;
+    }
+
+    TagDescriptor getResult() {
+        return new TagDescriptor(name, doc.toString(), !invokeBody, attributes);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+        depth++;
+        if (DEFINE_NS.equals(uri) && localName.equals("invokeBody")) {
+            invokeBody = true;
+        }
+        if (!STAPLER_NS.equals(uri)) {
+            return;
+        }
+        if (!docSeen && localName.equals("documentation")) {
+            docSeen = true;
+            docDepth = depth;
+        } else if (docDepth != 0 && depth == docDepth + 1 && localName.equals("attribute")) {
+            attribute = new LinkedHashMap<>();
+            for (int i = 0; i < atts.getLength(); i++) {
+                attribute.put(atts.getLocalName(i), atts.getValue(i));
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (attribute != null && depth == docDepth + 1) {
+            attributes.add(new TagDescriptor.AttributeDescriptor(attribute, attributeDoc.toString()));
+            attribute = null;
+            attributeDoc.setLength(0);
+        } else if (depth == docDepth) {
+            docDepth = 0;
+        }
+        depth--;
+        if (isComplete()) {
+            throw Done.INSTANCE;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (docDepth == 0) {
+            return;
+        }
+        if (depth == docDepth) {
+            doc.append(ch, start, length);
+        } else if (attribute != null && depth == docDepth + 1) {
+            attributeDoc.append(ch, start, length);
+        }
+    }
+
+    /**
+     * Parses a given tag file into {@link TagDescriptor}.
+     */
+    static TagDescriptor parse(File tagFile) throws IOException {
+        TagFileExtractor extractor = of(tagFile);
+        try {
+            PARSER.get().parse(tagFile, extractor);
+        } catch (Done e) {
+            // the rest of the file doesn't matter
+        } catch (SAXException e) {
+            throw new IOException("Failed to parse " + tagFile, e);
+        }
+        return extractor.getResult();
+    }
+
+    /**
+     * Creates an extractor to be fed with the SAX events of the given tag file.
+     */
+    static TagFileExtractor of(File tagFile) {
+        String name = tagFile.getName();
+        return new TagFileExtractor(name.substring(0, name.length() - 6)); // cut off ".jelly"
+    }
+
+    /**
+     * Thrown to stop parsing once the result is complete.
+     */
+    static final class Done extends SAXException {
+        static final Done INSTANCE = new Done();
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * {@link SAXParser} isn't thread-safe, so each thread that parses tag files gets its own.
+     */
+    static final ThreadLocal<SAXParser> PARSER = ThreadLocal.withInitial(() -> {
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            return spf.newSAXParser();
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new Error(e); // impossible
+        }
+    });
+}
@@ -25,16 +25,15 @@ package org.kohsuke.stapler;
 import com.sun.xml.txw2.TXW;
 import com.sun.xml.txw2.output.StreamSerializer;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.doxia.sink.Sink;
@@ -53,17 +52,9 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.reporting.MavenMultiPageReport;
 import org.apache.maven.reporting.MavenReportException;
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentFactory;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.io.SAXReader;
 import org.eclipse.aether.RepositorySystem;
-import org.jvnet.maven.jellydoc.Attribute;
 import org.jvnet.maven.jellydoc.JellydocMojo;
 import org.jvnet.maven.jellydoc.Library;
-import org.jvnet.maven.jellydoc.Tag;
 import org.jvnet.maven.jellydoc.Tags;
 
 /**
@@ -73,7 +64,8 @@ import org.jvnet.maven.jellydoc.Tags;
  * <p>
  * For productive debugging of this mojo, run "mvn site:run" with debugger.
  * Every request will trigger a whole rendering, and you can do hot-swap of
- * byte code for changes.
+ * byte code for changes. (Unless {@link #reportCache} is on, in which case
+ * unchanged reports are replayed from the cache.)
  *
  * @author Kohsuke Kawaguchi
  */
@@ -108,32 +100,177 @@ public class TaglibDocMojo extends AbstractMojo implements MavenMultiPageReport
      * Regular expression for taglib URIs. If specified,
      * only those taglibs that match these patterns will be generated into
      * documentation.
+     *
+     * <p>
+     * {@code glob:/lib/**} and {@code prefix:/lib/hudson} forms are also accepted.
+     * Directories that no pattern could match below are not scanned at all.
+     *
+     * @see UriFilter
      */
     @Parameter(defaultValue = "${patterns}")
-    private String[] patterns = new String[] {".*"};
+    protected String[] patterns = new String[] {".*"};
+
+    /**
+     * Taglib URIs that match these patterns are left out of the documentation,
+     * even if they match {@link #patterns}. Same syntax as {@link #patterns}.
+     */
+    @Parameter(property = "excludePatterns")
+    protected String[] excludePatterns = new String[0];
+
+    /**
+     * If true, remember what was extracted from each tag file in {@code target/taglib-cache.bin},
+     * and only parse tag files that have changed since the previous build.
+     */
+    @Parameter(property = "stapler.incremental", defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * Number of threads used to parse tag files. 0 or less means one per processor.
+     * The generated {@code taglib.xml} is the same regardless of this setting.
+     */
+    @Parameter(property = "stapler.threads", defaultValue = "1")
+    protected int threads = 1;
+
+    /**
+     * How deep below each resource directory to look, where 1 means only the files directly in it.
+     * 0 or less means no limit.
+     * Symbolic links are followed, except those that point back to one of their own parent directories.
+     */
+    @Parameter(property = "stapler.maxDepth", defaultValue = "0")
+    protected int maxDepth;
+
+    /**
+     * If true, also generate {@code target/taglib.idx}, a binary index of tags and their attributes
+     * that tools can memory-map and query without parsing {@code taglib.xml}.
+     *
+     * @see TaglibIndex
+     */
+    @Parameter(property = "stapler.taglibIndex", defaultValue = "false")
+    protected boolean writeIndex;
+
+    /**
+     * If true, the rendered site report is recorded in {@code target/jellydoc-report-cache},
+     * and replayed as long as {@code taglib.xml} stays the same, instead of being rendered again.
+     *
+     * @see ReportCache
+     */
+    @Parameter(property = "stapler.reportCache", defaultValue = "false")
+    protected boolean reportCache;
+
+    /**
+     * If true, write {@code target/stapler-timing-jelly-taglibdoc.txt} with the time spent in each phase
+     * and the slowest files.
+     */
+    @Parameter(property = "stapler.timing", defaultValue = "false")
+    private boolean timing;
+
+    /**
+     * Number of the slowest files listed in the timing report.
+     */
+    @Parameter(property = "stapler.timing.top", defaultValue = "20")
+    private int timingTop = 20;
+
+    /**
+     * Time budget of this goal in milliseconds. A warning is issued if the goal takes longer.
+     * 0 means no budget.
+     */
+    @Parameter(property = "stapler.timing.budget", defaultValue = "0")
+    private long timingBudget;
 
     /**
      * Factory for creating artifact objects
      */
     @Component
-    private ArtifactFactory factory;
+    ArtifactFactory factory;
 
     /**
      * Used for resolving artifacts
      */
     @Component
-    private RepositorySystem repositorySystem;
+    RepositorySystem repositorySystem;
 
     @Component
-    private MavenProjectHelper helper;
+    MavenProjectHelper helper;
+
+    /**
+     * Where {@link JellydocMojo#generateSchema()} writes the schema, relative to the base directory,
+     * and the classifier it attaches the schema with.
+     */
+    private static final String SCHEMA_FILE = "target/taglib.xsd";
+
+    private static final String SCHEMA_CLASSIFIER = "taglib";
 
     private JellydocMojo jellydoc;
 
+    /**
+     * Non-null during {@link #findTagLibs()} in the incremental mode.
+     */
+    private TagFileCache cache;
+
+    private TimingReport timings = TimingReport.DISABLED;
+
+    /**
+     * SHA-256 of {@code taglib.xml} as of the last {@link #generate(List)}.
+     */
+    private String taglibHash;
+
+    /**
+     * True while {@code taglib.xml} is known to be up to date, so the report doesn't need to regenerate it.
+     */
+    private boolean taglibUpToDate;
+
+    /**
+     * True while the site report is rendered. {@code mvn site:run} renders it on each request in the same session,
+     * so the index shared in the session would miss the tag files added or removed since the first one.
+     */
+    private boolean rendering;
+
     @Override
     public void execute() throws MojoExecutionException {
-        writeTaglibXml();
+        timings = new TimingReport("jelly-taglibdoc", timingTop, timing);
+        try {
+            generate(findTagLibs());
+            File report = new File(project.getBasedir(), "target/stapler-timing-jelly-taglibdoc.txt");
+            timings.finish(report, timingBudget, getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write the timing report", e);
+        } finally {
+            timings = TimingReport.DISABLED;
+        }
+    }
 
-        getJellydocMojo().generateSchema();
+    /**
+     * Writes {@code taglib.xml} from the given tag libraries, leaving it untouched if nothing has changed,
+     * and regenerates the schema if {@code taglib.xml} has changed or the schema is missing.
+     *
+     * <p>
+     * The schema is attached to the project either way, as skipping its generation also skips
+     * the attachment that {@link JellydocMojo#generateSchema()} does.
+     */
+    void generate(List<TagLibrary> libs) throws MojoExecutionException {
+        long start = System.nanoTime();
+        String hash = HexFormat.of().formatHex(writeTaglibXml(libs));
+        taglibHash = hash;
+        timings.phase("write", start);
+
+        // remember which taglib.xml the schema was generated from, in case the schema generation fails
+        File stamp = new File(project.getBasedir(), "target/taglib.xml.sha256");
+        File schema = new File(project.getBasedir(), SCHEMA_FILE);
+        try {
+            if (schema.exists()
+                    && stamp.exists()
+                    && hash.equals(Files.readString(stamp.toPath(), StandardCharsets.US_ASCII))) {
+                getLog().info("Taglibs are unchanged since the schema was generated; skipping schema generation");
+                helper.attachArtifact(project, "xsd", SCHEMA_CLASSIFIER, schema);
+                return;
+            }
+            start = System.nanoTime();
+            getJellydocMojo().generateSchema();
+            timings.phase("schema", start);
+            Files.writeString(stamp.toPath(), hash, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to update " + stamp, e);
+        }
     }
 
     private JellydocMojo getJellydocMojo() {
@@ -141,7 +278,9 @@ public class TaglibDocMojo extends AbstractMojo implements MavenMultiPageReport
             jellydoc = new JellydocMojo() {
                 @Override
                 public void execute() throws MojoExecutionException {
-                    TaglibDocMojo.this.execute();
+                    if (!taglibUpToDate) {
+                        TaglibDocMojo.this.execute();
+                    }
                 }
             };
             jellydoc.factory = factory;
@@ -153,105 +292,218 @@ public class TaglibDocMojo extends AbstractMojo implements MavenMultiPageReport
         return jellydoc;
     }
 
-    private void writeTaglibXml() throws MojoExecutionException {
+    /**
+     * Finds all the tag libraries to be documented, and parses their tag files.
+     */
+    List<TagLibrary> findTagLibs() throws MojoExecutionException {
+        File cacheFile = new File(project.getBasedir(), "target/taglib-cache.bin");
         try {
-            File taglibsXml = new File(project.getBasedir(), "target/taglib.xml");
-            taglibsXml.getParentFile().mkdirs();
-            Tags tags = TXW.create(Tags.class, new StreamSerializer(new FileOutputStream(taglibsXml)));
+            if (incremental) {
+                cache = TagFileCache.load(cacheFile, getLog());
+            }
+            long start = System.nanoTime();
+            UriFilter filter = new UriFilter(patterns, excludePatterns);
+            FileTreeIndex index = rendering
+                    ? new FileTreeIndex(maxDepth, getLog())
+                    : FileTreeIndex.of(session, maxDepth, getLog());
+            List<TagLibrary> libs = new ArrayList<>();
             for (Resource res : project.getResources()) {
-                scanTagLibs(new File(res.getDirectory()), "", tags);
+                scanTagLibs(index, new File(res.getDirectory()), "", filter, libs);
+            }
+            timings.phase("walk", start);
+
+            start = System.nanoTime();
+            parseTagLibs(libs);
+            timings.phase("parse", start);
+
+            if (cache != null) {
+                getLog().info("Reused " + cache.getHits() + " of " + cache.size() + " tag files from the cache");
+                cache.save(cacheFile);
+            }
+            return libs;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to scan taglibs", e);
+        } finally {
+            cache = null;
+        }
+    }
+
+    /**
+     * Generates {@code target/taglib.xml}, leaving the file untouched if the content hasn't changed.
+     *
+     * @return
+     *      SHA-256 of the generated taglib.xml
+     */
+    private byte[] writeTaglibXml(List<TagLibrary> libs) throws MojoExecutionException {
+        File taglibsXml = new File(project.getBasedir(), "target/taglib.xml");
+        try (AtomicFileOutput out = new AtomicFileOutput(taglibsXml)) {
+            Tags tags = TXW.create(Tags.class, new StreamSerializer(out.getStream()));
+            for (TagLibrary lib : libs) {
+                lib.write(tags.library());
             }
             tags.commit();
+            if (out.commit()) {
+                getLog().info("Updated " + taglibsXml);
+            } else {
+                getLog().info(taglibsXml + " is up to date");
+            }
+            if (writeIndex) {
+                writeIndex(libs);
+            }
+            return out.getDigest();
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to generate taglibs.xml", e);
         }
     }
 
+    private void writeIndex(List<TagLibrary> libs) throws IOException {
+        File index = new File(project.getBasedir(), "target/taglib.idx");
+        try (AtomicFileOutput out = new AtomicFileOutput(index)) {
+            TaglibIndex.write(libs, out.getStream());
+            if (out.commit()) {
+                getLog().info("Updated " + index);
+            }
+        }
+    }
+
     /**
-     * Recurisely search for taglibs and call {@link #parseTagLib(File, String, Library)}.
+     * Recursively search for taglibs and add them to the list, in a stable order.
      */
-    private void scanTagLibs(File dir, String uri, Tags tags) throws IOException {
-        if (new File(dir, "taglib").exists()) {
-            boolean match = patterns.length == 0;
-            for (String p : patterns) {
-                if (Pattern.matches(p, uri)) {
-                    match = true;
-                    break;
+    private void scanTagLibs(FileTreeIndex index, File dir, String uri, UriFilter filter, List<TagLibrary> libs)
+            throws IOException {
+        List<FileTreeIndex.Entry> children = index.list(dir);
+        if (children == null) {
+            return;
+        }
+        if (filter.matches(uri)) {
+            List<File> tagFiles = new ArrayList<>();
+            boolean marker = false;
+            for (FileTreeIndex.Entry child : children) {
+                if (child.getName().equals("taglib")) {
+                    marker = true;
+                } else if (isTagFile(child.getName(), child.isDirectory())) {
+                    tagFiles.add(child.file);
                 }
             }
-            if (match) {
-                parseTagLib(dir, uri, tags.library());
+            if (marker) {
+                libs.add(new TagLibrary(dir, uri, tagFiles));
             }
         }
 
         // scan subdirs
-        File[] subdirs = dir.listFiles(File::isDirectory);
-        if (subdirs == null) {
-            return;
-        }
-        for (File subdir : subdirs) {
-            scanTagLibs(subdir, uri + '/' + subdir.getName(), tags);
+        for (FileTreeIndex.Entry child : children) {
+            String subUri = uri + '/' + child.getName();
+            if (child.isDirectory() && filter.mayMatchWithin(subUri)) {
+                scanTagLibs(index, child.file, subUri, filter, libs);
+            }
         }
     }
 
-    private void parseTagLib(File dir, String uri, Library lib) throws IOException {
-        getLog().info("Processing " + dir);
+    /**
+     * Is this entry of a tag library directory a tag file? Every goal that looks for tag files uses this,
+     * so that they all find the same ones.
+     */
+    static boolean isTagFile(String name, boolean directory) {
+        return !directory && name.endsWith(".jelly");
+    }
 
-        List<String> markerFile =
-                new ArrayList<>(Files.readAllLines(dir.toPath().resolve("taglib"), StandardCharsets.UTF_8));
-        if (markerFile.size() == 0) {
-            markerFile.add(uri);
+    /**
+     * Parses tag files of all the given libraries, possibly in parallel.
+     */
+    private void parseTagLibs(List<TagLibrary> libs) throws IOException {
+        List<File> tagFiles = new ArrayList<>();
+        for (TagLibrary lib : libs) {
+            getLog().info("Processing " + lib.dir);
+            tagFiles.addAll(lib.tagFiles);
         }
 
-        // write the attributes
-        lib.name(markerFile.get(0));
-        lib.prefix(uri.substring(uri.lastIndexOf('/') + 1)).uri(uri);
-        // doc
-        lib.doc()._pcdata(String.join("\n", markerFile));
+        List<TagDescriptor> tags = ParallelTasks.map(threads, tagFiles, this::parseTagFile);
 
-        File[] tagFiles = dir.listFiles(f -> f.getName().endsWith(".jelly"));
-        if (tagFiles == null) {
-            return;
-        }
-        for (File tagFile : tagFiles) {
-            parseTagFile(tagFile, lib.tag());
+        int i = 0;
+        for (TagLibrary lib : libs) {
+            lib.tags = tags.subList(i, i + lib.tagFiles.size());
+            i += lib.tagFiles.size();
         }
     }
 
+    private TagDescriptor parseTagFile(File tagFile) throws IOException {
+        long start = System.nanoTime();
+        TagDescriptor tag =
+                cache != null ? cache.get(tagFile, TagFileExtractor::parse) : TagFileExtractor.parse(tagFile);
+        timings.file(tagFile, start, tag.attributes.size());
+        return tag;
+    }
+
     /**
-     * Parses a given tag file and writes to {@link Tag}.
+     * Tag library found in a directory that has the "taglib" marker file.
      */
-    private void parseTagFile(File tagFile, Tag tag) throws IOException {
-        try {
-            String name = tagFile.getName();
-            name = name.substring(0, name.length() - 6); // cut off ".jelly"
-            tag.name(name);
-
-            DocumentFactory f = new DocumentFactory();
-            f.setXPathNamespaceURIs(NAMESPACE_MAP);
-            Document jelly = new SAXReader(f).read(tagFile);
-            Element doc = (Element) jelly.selectSingleNode(".//s:documentation");
-
-            // does this tag have a body?
-            if (jelly.selectSingleNode("//d:invokeBody") == null) {
-                tag.noContent(true);
+    static final class TagLibrary {
+        final File dir;
+        final String uri;
+        /**
+         * Contents of the marker file. The first line is the name of the library.
+         */
+        final List<String> markerFile;
+        /**
+         * Tag files in this library, sorted by their names.
+         */
+        final List<File> tagFiles;
+        /**
+         * Parsed {@link #tagFiles}, in the same order.
+         */
+        List<TagDescriptor> tags;
+
+        TagLibrary(File dir, String uri) throws IOException {
+            this(dir, uri, listTagFiles(dir));
+        }
+
+        /**
+         * @param tagFiles
+         *      Tag files in the directory, sorted by their names.
+         */
+        TagLibrary(File dir, String uri, List<File> tagFiles) throws IOException {
+            this.dir = dir;
+            this.uri = uri;
+            markerFile = new ArrayList<>(Files.readAllLines(dir.toPath().resolve("taglib"), StandardCharsets.UTF_8));
+            if (markerFile.size() == 0) {
+                markerFile.add(uri);
             }
+            this.tagFiles = tagFiles;
+        }
 
-            if (doc == null) {
-                tag.doc("");
-            } else {
-                tag.doc(doc.getText());
-                for (Node node : doc.selectNodes("s:attribute")) {
-                    Element attr = (Element) node;
-                    Attribute aw = tag.attribute();
-                    for (org.dom4j.Attribute a : attr.attributes()) {
-                        aw._attribute(a.getName(), a.getValue());
-                    }
-                    aw.doc(attr.getText());
-                }
+        private static List<File> listTagFiles(File dir) {
+            File[] files = dir.listFiles(f -> isTagFile(f.getName(), f.isDirectory()));
+            if (files == null) {
+                files = new File[0];
+            }
+            Arrays.sort(files);
+            return Arrays.asList(files);
+        }
+
+        /**
+         * Creates a copy of this library that reflects the changes made to its directory.
+         * Tag files that aren't in {@code changed} are not parsed again.
+         */
+        TagLibrary reload(Set<File> changed) throws IOException {
+            TagLibrary lib = new TagLibrary(dir, uri);
+            lib.tags = new ArrayList<>();
+            for (File f : lib.tagFiles) {
+                int i = tagFiles.indexOf(f);
+                lib.tags.add(i >= 0 && !changed.contains(f) ? tags.get(i) : TagFileExtractor.parse(f));
+            }
+            return lib;
+        }
+
+        void write(Library lib) {
+            // write the attributes
+            lib.name(markerFile.get(0));
+            lib.prefix(uri.substring(uri.lastIndexOf('/') + 1)).uri(uri);
+            // doc
+            lib.doc()._pcdata(String.join("\n", markerFile));
+
+            for (TagDescriptor t : tags) {
+                t.write(lib.tag());
             }
-        } catch (DocumentException e) {
-            throw new IOException("Failed to parse " + tagFile, e);
         }
     }
 
@@ -268,7 +520,12 @@ public class TaglibDocMojo extends AbstractMojo implements MavenMultiPageReport
      */
     @Deprecated
     public void generate(Sink sink, Locale locale) throws MavenReportException {
-        getJellydocMojo().generate(sink, locale);
+        rendering = true;
+        try {
+            getJellydocMojo().generate(sink, locale);
+        } finally {
+            rendering = false;
+        }
     }
 
     /**
@@ -281,7 +538,46 @@ public class TaglibDocMojo extends AbstractMojo implements MavenMultiPageReport
      */
     @Override
     public void generate(Sink sink, SinkFactory sinkFactory, Locale locale) throws MavenReportException {
-        getJellydocMojo().generate(sink, sinkFactory, locale);
+        rendering = true;
+        try {
+            render(sink, sinkFactory, locale);
+        } finally {
+            rendering = false;
+        }
+    }
+
+    private void render(Sink sink, SinkFactory sinkFactory, Locale locale) throws MavenReportException {
+        if (!reportCache) {
+            getJellydocMojo().generate(sink, sinkFactory, locale);
+            return;
+        }
+
+        try {
+            execute();
+        } catch (MojoExecutionException e) {
+            throw new MavenReportException("Failed to generate taglib.xml", e);
+        }
+        ReportCache cache = new ReportCache(new File(project.getBasedir(), "target/jellydoc-report-cache"));
+        String name = locale + " " + getReportOutputDirectory();
+        String key = taglibHash + " " + pluginVersion;
+        try {
+            if (cache.replay(name, key, sink, sinkFactory)) {
+                getLog().info("Taglibs are unchanged; replaying the cached report");
+                return;
+            }
+            ReportCache.Recording recording = cache.record(sink, sinkFactory);
+            taglibUpToDate = true;
+            try {
+                getJellydocMojo().generate(recording.getSink(), recording.getSinkFactory(), locale);
+            } finally {
+                taglibUpToDate = false;
+            }
+            if (!recording.save(name, key)) {
+                getLog().debug("The report cannot be cached");
+            }
+        } catch (IOException e) {
+            throw new MavenReportException("Failed to access the report cache", e);
+        }
     }
 
     @Override
@@ -323,11 +619,4 @@ public class TaglibDocMojo extends AbstractMojo implements MavenMultiPageReport
     public boolean canGenerateReport() {
         return getJellydocMojo().canGenerateReport();
     }
-
-    private static final Map<String, String> NAMESPACE_MAP = new HashMap<>();
-
-    static {
-        NAMESPACE_MAP.put("s", "jelly:stapler");
-        NAMESPACE_MAP.put("d", "jelly:define");
-    }
 }
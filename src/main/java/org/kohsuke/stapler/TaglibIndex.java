@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact binary index of tag libraries, written next to {@code taglib.xml}
+ * for tools that need to look up tags without parsing XML.
+ *
+ * <p>
+ * The file is meant to be memory-mapped. All integers are big-endian 32-bit.
+ * <pre>
+ * magic "STPI", version
+ * string count, string offsets[count + 1], UTF-8 string bytes
+ * tag count, tags[count] = { library URI, tag name, flags, attribute table offset }
+ * attribute table = for each tag: { count, attributes[count] = { name, flags } }
+ * </pre>
+ * Strings are referenced by their index in the string table, which is sorted by its UTF-8 bytes.
+ * Tags are sorted by library URI then by name, so both can be found by binary search.
+ */
+public final class TaglibIndex {
+    private static final int MAGIC = 0x53545049; // "STPI"
+    private static final int VERSION = 1;
+
+    private static final int TAG_NO_CONTENT = 1;
+    private static final int ATTRIBUTE_REQUIRED = 1;
+
+    private final ByteBuffer buf;
+    private final int stringCount;
+    /**
+     * Position of the string offsets.
+     */
+    private final int stringOffsets;
+    /**
+     * Position of the string bytes, which the offsets are relative to.
+     */
+    private final int strings;
+
+    private final int tagCount;
+    private final int tags;
+    private final int attributes;
+
+    private TaglibIndex(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.limit() < 12 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a taglib index, or written by an incompatible version");
+        }
+        stringCount = count(buf, 8);
+        stringOffsets = 12;
+        strings = range(buf, stringOffsets, (stringCount + 1L) * 4);
+        // the last string offset is the size of the string bytes
+        int p = range(buf, strings, count(buf, strings - 4));
+        tagCount = count(buf, p);
+        tags = p + 4;
+        attributes = range(buf, tags, tagCount * 16L);
+        // so that the lookups never read past the end, whatever the offsets and counts say
+        for (int i = 0; i < tagCount; i++) {
+            int a = range(buf, attributes, count(buf, tags + i * 16 + 12));
+            range(buf, a + 4, count(buf, a) * 8L);
+        }
+    }
+
+    /**
+     * Reads a count or an offset, which can't be negative.
+     */
+    private static int count(ByteBuffer buf, int p) throws IOException {
+        int n = p + 4 <= buf.limit() ? buf.getInt(p) : -1;
+        if (n < 0) {
+            throw new IOException("Truncated or corrupted taglib index");
+        }
+        return n;
+    }
+
+    /**
+     * Checks that the given number of bytes from {@code start} are all in the buffer.
+     *
+     * @return
+     *      The end of the range.
+     */
+    private static int range(ByteBuffer buf, int start, long length) throws IOException {
+        if (start + length > buf.limit()) {
+            throw new IOException("Truncated or corrupted taglib index");
+        }
+        return (int) (start + length);
+    }
+
+    /**
+     * Memory-maps an index file written by {@link TaglibDocMojo}.
+     */
+    public static TaglibIndex open(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new TaglibIndex(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Wraps index data that's already in memory.
+     */
+    public static TaglibIndex wrap(ByteBuffer buf) throws IOException {
+        return new TaglibIndex(buf.duplicate());
+    }
+
+    /**
+     * Number of tags in the index.
+     */
+    public int size() {
+        return tagCount;
+    }
+
+    /**
+     * Finds a tag.
+     *
+     * @param uri
+     *      URI of the tag library, such as "/lib/form".
+     * @param name
+     *      Name of the tag.
+     * @return
+     *      null if no such tag exists.
+     */
+    public Entry find(String uri, String name) {
+        int u = findString(uri);
+        int n = findString(name);
+        if (u < 0 || n < 0) {
+            return null;
+        }
+        int lo = 0;
+        int hi = tagCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int p = tags + mid * 16;
+            int c = Integer.compare(buf.getInt(p), u);
+            if (c == 0) {
+                c = Integer.compare(buf.getInt(p + 4), n);
+            }
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return new Entry(p);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A tag in the index.
+     */
+    public final class Entry {
+        private final int p;
+
+        private Entry(int p) {
+            this.p = p;
+        }
+
+        public String getLibraryUri() {
+            return getString(buf.getInt(p));
+        }
+
+        public String getName() {
+            return getString(buf.getInt(p + 4));
+        }
+
+        /**
+         * True if the tag never invokes its body.
+         */
+        public boolean isNoContent() {
+            return (buf.getInt(p + 8) & TAG_NO_CONTENT) != 0;
+        }
+
+        /**
+         * Names of the documented attributes, in the order they are documented.
+         */
+        public List<String> getAttributes() {
+            int a = attributes + buf.getInt(p + 12);
+            int n = buf.getInt(a);
+            List<String> r = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                r.add(getString(buf.getInt(a + 4 + i * 8)));
+            }
+            return r;
+        }
+
+        /**
+         * True if the given attribute is documented with {@code use="required"}.
+         */
+        public boolean isRequired(String attribute) {
+            int s = findString(attribute);
+            int a = attributes + buf.getInt(p + 12);
+            int n = buf.getInt(a);
+            for (int i = 0; i < n; i++) {
+                int q = a + 4 + i * 8;
+                if (buf.getInt(q) == s) {
+                    return (buf.getInt(q + 4) & ATTRIBUTE_REQUIRED) != 0;
+                }
+            }
+            return false;
+        }
+    }
+
+    private String getString(int i) {
+        int start = buf.getInt(stringOffsets + i * 4);
+        int end = buf.getInt(stringOffsets + i * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        buf.get(strings + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Binary search of the string table.
+     *
+     * @return
+     *      index of the string, or -1 if not found.
+     */
+    private int findString(String s) {
+        byte[] key = s.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = stringCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = buf.getInt(stringOffsets + mid * 4);
+            int end = buf.getInt(stringOffsets + mid * 4 + 4);
+            int c = compare(strings + start, end - start, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int p, int len, byte[] key) {
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(buf.get(p + i) & 0xFF, key[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(len, key.length);
+    }
+
+    /**
+     * Writes the index of the given tag libraries.
+     */
+    static void write(List<TaglibDocMojo.TagLibrary> libs, OutputStream os) throws IOException {
+        // build the sorted string table
+        Map<String, Integer> table = new TreeMap<>(UTF8_ORDER);
+        for (TaglibDocMojo.TagLibrary lib : libs) {
+            table.put(lib.uri, 0);
+            for (TagDescriptor t : lib.tags) {
+                table.put(t.name, 0);
+                for (TagDescriptor.AttributeDescriptor a : t.attributes) {
+                    table.put(attributeName(a), 0);
+                }
+            }
+        }
+        int idx = 0;
+        for (Map.Entry<String, Integer> e : table.entrySet()) {
+            e.setValue(idx++);
+        }
+
+        // sort tags by (library URI, name)
+        List<int[]> entries = new ArrayList<>();
+        List<TagDescriptor> descriptors = new ArrayList<>();
+        for (TaglibDocMojo.TagLibrary lib : libs) {
+            for (TagDescriptor t : lib.tags) {
+                entries.add(new int[] {table.get(lib.uri), table.get(t.name), descriptors.size()});
+                descriptors.add(t);
+            }
+        }
+        entries.sort((x, y) -> x[0] != y[0] ? Integer.compare(x[0], y[0]) : Integer.compare(x[1], y[1]));
+        // the same URI can show up in more than one resource directory; first one wins like in class loading
+        List<int[]> unique = new ArrayList<>();
+        for (int[] e : entries) {
+            int[] last = unique.isEmpty() ? null : unique.get(unique.size() - 1);
+            if (last == null || last[0] != e[0] || last[1] != e[1]) {
+                unique.add(e);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(table.size());
+        List<byte[]> bytes = new ArrayList<>(table.size());
+        int offset = 0;
+        for (String s : table.keySet()) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            bytes.add(b);
+            out.writeInt(offset);
+            offset += b.length;
+        }
+        out.writeInt(offset);
+        for (byte[] b : bytes) {
+            out.write(b);
+        }
+
+        out.writeInt(unique.size());
+        int attributeOffset = 0;
+        for (int[] e : unique) {
+            TagDescriptor t = descriptors.get(e[2]);
+            out.writeInt(e[0]);
+            out.writeInt(e[1]);
+            out.writeInt(t.noContent ? TAG_NO_CONTENT : 0);
+            out.writeInt(attributeOffset);
+            attributeOffset += 4 + t.attributes.size() * 8;
+        }
+        for (int[] e : unique) {
+            TagDescriptor t = descriptors.get(e[2]);
+            out.writeInt(t.attributes.size());
+            for (TagDescriptor.AttributeDescriptor a : t.attributes) {
+                out.writeInt(table.get(attributeName(a)));
+                out.writeInt("required".equals(a.attributes.get("use")) ? ATTRIBUTE_REQUIRED : 0);
+            }
+        }
+        out.flush();
+    }
+
+    private static String attributeName(TagDescriptor.AttributeDescriptor a) {
+        String name = a.attributes.get("name");
+        return name != null ? name : "";
+    }
+
+    /**
+     * Order of the string table, which is what {@link #compare(int, int, byte[])} expects.
+     */
+    private static final Comparator<String> UTF8_ORDER =
+            Comparator.comparing(s -> s.getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned);
+}
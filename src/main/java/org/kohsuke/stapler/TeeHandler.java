@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Forwards the SAX events of a Jelly script to several handlers, so that the script is parsed only once
+ * no matter how many things are extracted from it.
+ *
+ * <p>
+ * A handler that stops early by throwing {@link TagFileExtractor.Done} is dropped, and the parse itself
+ * only stops once every handler is done.
+ */
+final class TeeHandler extends DefaultHandler {
+    private final List<DefaultHandler> handlers;
+
+    TeeHandler(List<DefaultHandler> handlers) {
+        this.handlers = new ArrayList<>(handlers);
+    }
+
+    private interface Event {
+        void fire(DefaultHandler h) throws SAXException;
+    }
+
+    private void fire(Event e) throws SAXException {
+        for (int i = 0; i < handlers.size(); ) {
+            try {
+                e.fire(handlers.get(i));
+                i++;
+            } catch (TagFileExtractor.Done done) {
+                handlers.remove(i);
+            }
+        }
+        if (handlers.isEmpty()) {
+            throw TagFileExtractor.Done.INSTANCE;
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        for (DefaultHandler h : handlers) {
+            h.setDocumentLocator(locator);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        fire(h -> h.startElement(uri, localName, qName, atts));
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        fire(h -> h.endElement(uri, localName, qName));
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        fire(h -> h.characters(ch, start, length));
+    }
+
+    /**
+     * Parses the given Jelly script once, feeding its events to all the given handlers.
+     * Safe to call from multiple threads at once.
+     */
+    static void parse(File file, List<DefaultHandler> handlers) throws IOException {
+        if (handlers.isEmpty()) {
+            return;
+        }
+        try {
+            TagFileExtractor.PARSER.get().parse(file, new TeeHandler(handlers));
+        } catch (TagFileExtractor.Done e) {
+            // the rest of the file doesn't matter
+        } catch (SAXException e) {
+            throw new IOException("Failed to parse " + file, e);
+        }
+    }
+}
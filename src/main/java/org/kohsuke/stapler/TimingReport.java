@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects where a goal spends its time: totals per phase (such as walk, parse and write),
+ * and the slowest files.
+ *
+ * <p>
+ * Methods are thread-safe, and do nothing on {@link #DISABLED}, so callers don't need to check.
+ */
+final class TimingReport {
+    /**
+     * Report that doesn't record anything.
+     */
+    static final TimingReport DISABLED = new TimingReport(null, 0, false);
+
+    private final String goal;
+    private final int top;
+    private final boolean enabled;
+    private final long start = System.nanoTime();
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    /**
+     * The slowest files so far, fastest first, so that the head is the one to drop.
+     */
+    private final PriorityQueue<FileTiming> slowest =
+            new PriorityQueue<>(Comparator.comparingLong((FileTiming t) -> t.nanos));
+
+    private int files;
+
+    /**
+     * @param goal
+     *      Name of the goal, like "l10n".
+     * @param top
+     *      Number of the slowest files to report.
+     * @param enabled
+     *      If false, only the elapsed time is tracked, for the time budget.
+     */
+    TimingReport(String goal, int top, boolean enabled) {
+        this.goal = goal;
+        this.top = top;
+        this.enabled = enabled;
+    }
+
+    private static final class FileTiming {
+        final File file;
+        final long nanos;
+        final long size;
+        final int count;
+
+        FileTiming(File file, long nanos, long size, int count) {
+            this.file = file;
+            this.nanos = nanos;
+            this.size = size;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Adds the time since {@code startNanos} to the given phase.
+     *
+     * @param startNanos
+     *      {@link System#nanoTime()} when the phase started.
+     */
+    void phase(String name, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        synchronized (phases) {
+            phases.merge(name, elapsed, Long::sum);
+        }
+    }
+
+    /**
+     * Records the time spent on a single file.
+     *
+     * @param startNanos
+     *      {@link System#nanoTime()} when the processing of the file started.
+     * @param count
+     *      What was found in the file, like the number of tags or properties.
+     */
+    void file(File file, long startNanos, int count) {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        synchronized (slowest) {
+            files++;
+            if (slowest.size() < top) {
+                slowest.add(new FileTiming(file, elapsed, file.length(), count));
+            } else if (top > 0 && slowest.peek().nanos < elapsed) {
+                slowest.poll();
+                slowest.add(new FileTiming(file, elapsed, file.length(), count));
+            }
+        }
+    }
+
+    /**
+     * Milliseconds since this report was created.
+     */
+    long getElapsedMillis() {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Writes the report, and warns if the goal took longer than the budget.
+     *
+     * @param budget
+     *      Time budget in milliseconds, or 0 or less if there's none.
+     */
+    void finish(File out, long budget, Log log) throws IOException {
+        long elapsed = getElapsedMillis();
+        if (budget > 0 && elapsed > budget) {
+            log.warn("stapler:" + goal + " took " + elapsed + "ms, which is over the budget of " + budget + "ms");
+        }
+        if (enabled) {
+            write(out, elapsed);
+            log.info("Wrote timing report to " + out);
+        }
+    }
+
+    private void write(File out, long elapsed) throws IOException {
+        List<FileTiming> list;
+        int total;
+        synchronized (slowest) {
+            list = new ArrayList<>(slowest);
+            total = files;
+        }
+        list.sort(Comparator.comparingLong((FileTiming t) -> t.nanos).reversed());
+
+        out.getParentFile().mkdirs();
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8))) {
+            w.printf("Timing report of stapler:%s%n", goal);
+            w.printf("Total: %d ms%n", elapsed);
+            w.println();
+            w.println("Phases:");
+            synchronized (phases) {
+                for (Map.Entry<String, Long> e : phases.entrySet()) {
+                    w.printf("  %-10s %10.1f ms%n", e.getKey(), e.getValue() / 1e6);
+                }
+            }
+            w.println();
+            w.printf("Slowest %d of %d files:%n", list.size(), total);
+            w.printf("  %10s %12s %8s  %s%n", "ms", "bytes", "count", "file");
+            for (FileTiming t : list) {
+                w.printf("  %10.3f %12d %8d  %s%n", t.nanos / 1e6, t.size, t.count, t.file);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which taglib URIs are documented, and which parts of the resource tree
+ * can be skipped altogether because no URI below them could ever be documented.
+ *
+ * <p>
+ * Each pattern is one of:
+ * <ul>
+ * <li>a regular expression that needs to match the whole URI, such as {@code /lib/hudson.*}
+ * <li>{@code glob:/lib/**}, where {@code *} and {@code ?} don't cross '/' but {@code **} does
+ * <li>{@code prefix:/lib/hudson}, which matches any URI that starts with the given string
+ * </ul>
+ *
+ * <p>
+ * Pruning is based on the literal prefix of each pattern, so it is conservative:
+ * a pattern like {@code (/lib|/foo)/.*} simply disables it.
+ */
+final class UriFilter {
+    private final List<Entry> includes = new ArrayList<>();
+    private final List<Entry> excludes = new ArrayList<>();
+
+    /**
+     * @param includes
+     *      URIs need to match one of these to be documented. Empty means everything.
+     * @param excludes
+     *      URIs that match one of these are not documented.
+     */
+    UriFilter(String[] includes, String[] excludes) {
+        if (includes != null) {
+            for (String p : includes) {
+                this.includes.add(new Entry(p));
+            }
+        }
+        if (excludes != null) {
+            for (String p : excludes) {
+                this.excludes.add(new Entry(p));
+            }
+        }
+    }
+
+    /**
+     * Should the taglib at the given URI be documented?
+     */
+    boolean matches(String uri) {
+        boolean match = includes.isEmpty();
+        for (Entry e : includes) {
+            if (e.pattern.matcher(uri).matches()) {
+                match = true;
+                break;
+            }
+        }
+        if (!match) {
+            return false;
+        }
+        for (Entry e : excludes) {
+            if (e.pattern.matcher(uri).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Could the given URI or any URI below it (that is, starting with {@code uri + '/'}) match?
+     * If not, the directory doesn't need to be visited at all.
+     */
+    boolean mayMatchWithin(String uri) {
+        for (Entry e : excludes) {
+            if (e.excludesAllBelow && uri.startsWith(e.prefix)) {
+                return false;
+            }
+        }
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (Entry e : includes) {
+            if (uri.startsWith(e.prefix) || e.prefix.startsWith(uri + '/') || e.prefix.equals(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry {
+        final Pattern pattern;
+        /**
+         * Every URI that matches {@link #pattern} starts with this.
+         */
+        final String prefix;
+        /**
+         * True if every URI that starts with {@link #prefix} matches {@link #pattern}.
+         */
+        final boolean excludesAllBelow;
+
+        Entry(String p) {
+            if (p.startsWith("prefix:")) {
+                prefix = p.substring(7);
+                pattern = Pattern.compile(Pattern.quote(prefix) + ".*");
+                excludesAllBelow = true;
+            } else if (p.startsWith("glob:")) {
+                String glob = p.substring(5);
+                int wildcard = indexOfAny(glob, "*?");
+                prefix = wildcard < 0 ? glob : glob.substring(0, wildcard);
+                pattern = Pattern.compile(globToRegex(glob));
+                excludesAllBelow = glob.equals(prefix + "**");
+            } else {
+                prefix = literalPrefix(p);
+                pattern = Pattern.compile(p);
+                excludesAllBelow = p.equals(prefix + ".*");
+            }
+        }
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a glob into an equivalent regular expression.
+     */
+    static String globToRegex(String glob) {
+        StringBuilder buf = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            if (ch != '*' && ch != '?') {
+                continue;
+            }
+            if (literalStart < i) {
+                buf.append(Pattern.quote(glob.substring(literalStart, i)));
+            }
+            if (ch == '?') {
+                buf.append("[^/]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                buf.append(".*");
+                i++;
+            } else {
+                buf.append("[^/]*");
+            }
+            literalStart = i + 1;
+        }
+        if (literalStart < glob.length()) {
+            buf.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Computes the string that every match of the given regular expression starts with.
+     * This errs on the side of returning a shorter string, which is always safe.
+     */
+    static String literalPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return ""; // alternation can be anywhere
+        }
+        int i = 0;
+        while (i < regex.length() && META_CHARS.indexOf(regex.charAt(i)) < 0) {
+            i++;
+        }
+        if (i < regex.length() && i > 0 && "?*{".indexOf(regex.charAt(i)) >= 0) {
+            i--; // the last character is optional
+        }
+        return regex.substring(0, i);
+    }
+
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Persisted property keys of Jelly views from the previous build, so that {@link LocalizerMojo}
+ * only needs to parse views that have changed.
+ *
+ * <p>
+ * Each entry also remembers the state of the resource files of the view right after they were last
+ * brought up to date, so that a view whose script and resource file are both unchanged can be skipped
+ * without opening either of them.
+ *
+ * <p>
+ * Entries are keyed by the absolute path of the view. Only the entries that are looked up
+ * during the current build are saved, so views that were deleted drop out of the cache.
+ * {@link #get(File, Parser)} can be called from multiple threads concurrently.
+ */
+final class ViewKeyCache {
+    /**
+     * Bump this whenever the file format or the way keys are extracted changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private ViewKeyCache(Map<String, Entry> previous) {
+        this.previous = previous;
+    }
+
+    private static final class Entry {
+        final Fingerprint fingerprint;
+        final Set<String> keys;
+        /**
+         * Fingerprints of the resource files, keyed by locale.
+         */
+        final Map<String, Fingerprint> resources;
+        /**
+         * True if the view is unchanged since the previous build.
+         */
+        final boolean reused;
+
+        Entry(Fingerprint fingerprint, Set<String> keys, Map<String, Fingerprint> resources, boolean reused) {
+            this.fingerprint = fingerprint;
+            this.keys = keys;
+            this.resources = resources;
+            this.reused = reused;
+        }
+    }
+
+    interface Parser {
+        Set<String> parse(File view) throws IOException;
+    }
+
+    /**
+     * Returns the property keys used in the given view, from the cache if the view is unchanged,
+     * or by parsing it otherwise.
+     *
+     * @return
+     *      Unmodifiable set, in the order the keys appear in the view.
+     */
+    Set<String> get(File view, Parser parser) throws IOException {
+        String key = view.getAbsolutePath();
+        Entry e = previous.get(key);
+        Fingerprint fp = Fingerprint.of(view, e != null ? e.fingerprint : null);
+        if (e != null && fp.sameContent(e.fingerprint)) {
+            hits.incrementAndGet();
+            current.put(key, new Entry(fp, e.keys, new ConcurrentHashMap<>(e.resources), true));
+            return e.keys;
+        }
+        Set<String> keys = Collections.unmodifiableSet(new LinkedHashSet<>(parser.parse(view)));
+        current.put(key, new Entry(fp, keys, new ConcurrentHashMap<>(), false));
+        return keys;
+    }
+
+    /**
+     * True if neither the view nor its resource file for the given locale has changed since
+     * {@link #updated(File, String, File)} was last called for them, so there's nothing to add.
+     */
+    boolean isUpToDate(File view, String locale, File resourceFile) throws IOException {
+        Entry e = current.get(view.getAbsolutePath());
+        if (e == null || !e.reused || !resourceFile.exists()) {
+            return false;
+        }
+        Fingerprint old = e.resources.get(locale);
+        if (old == null) {
+            return false;
+        }
+        Fingerprint fp = Fingerprint.of(resourceFile, old);
+        if (!fp.sameContent(old)) {
+            return false;
+        }
+        e.resources.put(locale, fp);
+        return true;
+    }
+
+    /**
+     * Records the state of the resource file after it has been brought up to date with the view.
+     */
+    void updated(File view, String locale, File resourceFile) throws IOException {
+        Entry e = current.get(view.getAbsolutePath());
+        if (e == null) {
+            return;
+        }
+        if (resourceFile.exists()) {
+            e.resources.put(locale, Fingerprint.of(resourceFile, e.resources.get(locale)));
+        } else {
+            e.resources.remove(locale);
+        }
+    }
+
+    /**
+     * Number of views served from the cache so far.
+     */
+    int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of views looked up so far.
+     */
+    int size() {
+        return current.size();
+    }
+
+    /**
+     * Loads the cache, or returns an empty one if the cache file is missing or unusable.
+     */
+    static ViewKeyCache load(File file, Log log) {
+        Map<String, Entry> entries = new HashMap<>();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() == FORMAT_VERSION) {
+                int n = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH);
+                for (int i = 0; i < n; i++) {
+                    String key = BinaryIO.readString(in);
+                    Fingerprint fp = Fingerprint.readFrom(in);
+                    Set<String> keys = new LinkedHashSet<>();
+                    for (int j = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH); j > 0; j--) {
+                        keys.add(BinaryIO.readString(in));
+                    }
+                    Map<String, Fingerprint> resources = new HashMap<>();
+                    for (int j = BinaryIO.readLength(in, BinaryIO.MAX_LENGTH); j > 0; j--) {
+                        resources.put(BinaryIO.readString(in), Fingerprint.readFrom(in));
+                    }
+                    entries.put(key, new Entry(fp, Collections.unmodifiableSet(keys), resources, false));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first build
+        } catch (IOException e) {
+            log.warn("Ignoring corrupted l10n cache " + file, e);
+            entries.clear();
+        }
+        return new ViewKeyCache(entries);
+    }
+
+    /**
+     * Writes the entries used in this build to the given file.
+     */
+    void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                Entry entry = e.getValue();
+                BinaryIO.writeString(out, e.getKey());
+                entry.fingerprint.writeTo(out);
+                out.writeInt(entry.keys.size());
+                for (String k : entry.keys) {
+                    BinaryIO.writeString(out, k);
+                }
+                out.writeInt(entry.resources.size());
+                for (Map.Entry<String, Fingerprint> r : entry.resources.entrySet()) {
+                    BinaryIO.writeString(out, r.getKey());
+                    r.getValue().writeTo(out);
+                }
+            }
+        }
+    }
+}
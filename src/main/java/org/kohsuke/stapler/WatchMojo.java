@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2004-2010, Kohsuke Kawaguchi
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *       conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.kohsuke.stapler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.eclipse.aether.RepositorySystem;
+
+/**
+ * Keeps {@code taglib.xml} and the localized resource files up to date while Jelly views are being edited.
+ *
+ * <p>
+ * This runs {@code stapler:jelly-taglibdoc} (and {@code stapler:l10n} if {@code -Dlocale} is given) once,
+ * then watches the resource directories. Each burst of changes is batched, and only the tag files and views
+ * that were touched are processed again. Run until interrupted with Ctrl-C.
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.COMPILE)
+public class WatchMojo extends AbstractMojo {
+    /**
+     * The maven project.
+     */
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    protected MavenProject project;
+
+    /**
+     * The Maven session object.
+     */
+    @Parameter(defaultValue = "${session}", required = true, readonly = true)
+    protected MavenSession session;
+
+    /**
+     * The locales to keep the resource files up to date for, like {@code stapler:l10n}.
+     * If not specified, only {@code taglib.xml} is maintained.
+     */
+    @Parameter(property = "locale")
+    protected String locale;
+
+    /**
+     * Milliseconds to wait for more changes after one is detected, so that
+     * a burst of changes, like a "save all" or a VCS update, is processed at once.
+     */
+    @Parameter(property = "stapler.watch.quietPeriod", defaultValue = "300")
+    private long quietPeriod = 300;
+
+    /**
+     * Same as {@code patterns} of {@code stapler:jelly-taglibdoc}.
+     */
+    @Parameter(defaultValue = "${patterns}")
+    protected String[] patterns = new String[] {".*"};
+
+    /**
+     * Same as {@code excludePatterns} of {@code stapler:jelly-taglibdoc}.
+     */
+    @Parameter(property = "excludePatterns")
+    protected String[] excludePatterns = new String[0];
+
+    /**
+     * Number of threads used to parse Jelly files on the first run. 0 or less means one per processor.
+     * The result is the same regardless of this setting.
+     */
+    @Parameter(property = "stapler.threads", defaultValue = "1")
+    protected int threads = 1;
+
+    /**
+     * How deep below each resource directory to look, where 1 means only the files directly in it.
+     * 0 or less means no limit.
+     * Symbolic links are followed, except those that point back to one of their own parent directories.
+     */
+    @Parameter(property = "stapler.maxDepth", defaultValue = "0")
+    protected int maxDepth;
+
+    /**
+     * Same as {@code stapler.incremental} of {@code stapler:jelly-taglibdoc} and {@code stapler:l10n},
+     * for the first run and the full rescans.
+     */
+    @Parameter(property = "stapler.incremental", defaultValue = "false")
+    protected boolean incremental;
+
+    @Component
+    private ArtifactFactory factory;
+
+    @Component
+    private RepositorySystem repositorySystem;
+
+    @Component
+    private MavenProjectHelper helper;
+
+    private TaglibDocMojo taglib;
+    List<TaglibDocMojo.TagLibrary> libs;
+    private LocalizerMojo localizer;
+
+    WatchService watcher;
+    final Map<WatchKey, Path> keys = new HashMap<>();
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        taglib = new TaglibDocMojo();
+        taglib.setLog(getLog());
+        taglib.project = project;
+        taglib.session = session;
+        taglib.factory = factory;
+        taglib.repositorySystem = repositorySystem;
+        taglib.helper = helper;
+        taglib.patterns = patterns;
+        taglib.excludePatterns = excludePatterns;
+        taglib.threads = threads;
+        taglib.maxDepth = maxDepth;
+        taglib.incremental = incremental;
+        libs = taglib.findTagLibs();
+        taglib.generate(libs);
+
+        if (locale != null) {
+            localizer = new LocalizerMojo();
+            localizer.setLog(getLog());
+            localizer.project = project;
+            localizer.session = session;
+            localizer.locale = locale;
+            localizer.threads = threads;
+            localizer.maxDepth = maxDepth;
+            localizer.incremental = incremental;
+            localizer.execute();
+        }
+
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            watcher = ws;
+            for (Resource res : project.getResources()) {
+                Path dir = new File(res.getDirectory()).toPath();
+                if (Files.isDirectory(dir)) {
+                    register(dir);
+                }
+            }
+            getLog().info("Watching " + keys.size() + " directories for changes. Press Ctrl-C to stop.");
+
+            while (true) {
+                Batch batch = awaitChanges();
+                try {
+                    process(batch);
+                } catch (MojoExecutionException e) {
+                    // most likely a file saved half way through editing. keep going
+                    getLog().error(e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to watch resource directories", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Changes detected in one burst.
+     */
+    static final class Batch {
+        final Set<Path> paths = new LinkedHashSet<>();
+        /**
+         * True if the watch service lost events, or a new directory couldn't be watched,
+         * so we don't know exactly what has changed.
+         */
+        boolean overflow;
+    }
+
+    /**
+     * Registers the given directory and all its descendants to the watch service.
+     */
+    void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                keys.put(
+                        dir.register(
+                                watcher,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE,
+                                StandardWatchEventKinds.ENTRY_MODIFY),
+                        dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Blocks until something changes, then keeps collecting changes until
+     * nothing happens for {@link #quietPeriod}.
+     */
+    Batch awaitChanges() throws IOException, InterruptedException {
+        Batch batch = new Batch();
+        WatchKey key = watcher.take();
+        do {
+            Path dir = keys.get(key);
+            for (WatchEvent<?> e : key.pollEvents()) {
+                if (e.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    batch.overflow = true;
+                    continue;
+                }
+                Path p = dir.resolve((Path) e.context());
+                batch.paths.add(p);
+                if (e.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(p)) {
+                    try {
+                        register(p);
+                        // files created in the new directory before it was registered would be missed otherwise
+                        try (Stream<Path> files = Files.walk(p)) {
+                            files.forEach(batch.paths::add);
+                        }
+                    } catch (IOException | UncheckedIOException x) {
+                        // typically deleted again right away; a rescan sorts out whatever happened
+                        getLog().debug("Failed to watch " + p, x);
+                        batch.overflow = true;
+                    }
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+            key = watcher.poll(quietPeriod, TimeUnit.MILLISECONDS);
+        } while (key != null);
+        return batch;
+    }
+
+    private void process(Batch batch) throws MojoExecutionException {
+        getLog().info("Detected " + batch.paths.size() + " changes");
+        // the files have changed behind the back of the index shared in this session
+        for (Resource res : project.getResources()) {
+            FileTreeIndex.invalidate(session, new File(res.getDirectory()));
+        }
+        updateTaglibs(batch);
+        if (localizer != null) {
+            updateResources(batch);
+        }
+    }
+
+    /**
+     * Re-parses changed tag files and rewrites {@code taglib.xml}.
+     * Changes to directories and marker files can add or remove whole libraries, so they cause a full rescan.
+     */
+    private void updateTaglibs(Batch batch) throws MojoExecutionException {
+        Map<File, Set<File>> changedTagFiles = findChangedTagFiles(batch);
+        if (changedTagFiles == null) {
+            libs = taglib.findTagLibs();
+            taglib.generate(libs);
+            return;
+        }
+
+        boolean modified = false;
+        try {
+            for (int i = 0; i < libs.size(); i++) {
+                Set<File> changed = changedTagFiles.get(libs.get(i).dir);
+                if (changed != null) {
+                    getLog().info("Processing " + libs.get(i).dir);
+                    libs.set(i, libs.get(i).reload(changed));
+                    modified = true;
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to parse tag files", e);
+        }
+        if (modified) {
+            taglib.generate(libs);
+        }
+    }
+
+    /**
+     * Groups the changed tag files by their directories.
+     *
+     * @return
+     *      null if the libraries themselves may have changed, so that everything has to be scanned again.
+     */
+    Map<File, Set<File>> findChangedTagFiles(Batch batch) {
+        if (batch.overflow) {
+            return null;
+        }
+        Map<File, Set<File>> changedTagFiles = new LinkedHashMap<>();
+        for (Path p : batch.paths) {
+            String name = p.getFileName().toString();
+            if (name.equals("taglib") || Files.isDirectory(p) || isTagLibDirOrAncestor(p)) {
+                return null;
+            } else if (TaglibDocMojo.isTagFile(name, false)) {
+                File f = p.toFile();
+                changedTagFiles.computeIfAbsent(f.getParentFile(), k -> new LinkedHashSet<>()).add(f);
+            }
+        }
+        return changedTagFiles;
+    }
+
+    private boolean isTagLibDirOrAncestor(Path p) {
+        for (TaglibDocMojo.TagLibrary lib : libs) {
+            if (lib.dir.toPath().startsWith(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs changed views, and views whose resource files for {@link #locale} have changed,
+     * through {@link LocalizerMojo}.
+     */
+    private void updateResources(Batch batch) throws MojoExecutionException {
+        Set<File> views = new LinkedHashSet<>();
+        for (Path p : batch.paths) {
+            String name = p.getFileName().toString();
+            if (name.endsWith(".jelly")) {
+                views.add(p.toFile());
+                continue;
+            }
+            for (String l : localizer.getLocales()) {
+                String suffix = '_' + l + ".properties";
+                if (name.endsWith(suffix)) {
+                    String base = name.substring(0, name.length() - suffix.length());
+                    views.add(new File(p.toFile().getParentFile(), base + ".jelly"));
+                }
+            }
+        }
+        views.removeIf(view -> !view.isFile());
+        for (File view : views) {
+            localizer.processJelly(view);
+        }
+    }
+}
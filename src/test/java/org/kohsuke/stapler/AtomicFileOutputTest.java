@@ -0,0 +1,100 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AtomicFileOutputTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void onlyChangedContentIsReplaced() throws IOException {
+        Path f = dir.resolve("sub/out.txt");
+        assertTrue(write(f, "one"));
+        assertEquals("one", Files.readString(f));
+
+        FileTime old = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(f, old);
+        assertFalse(write(f, "one"));
+        assertEquals(old, Files.getLastModifiedTime(f));
+
+        assertTrue(write(f, "two"));
+        assertEquals("two", Files.readString(f));
+        assertEquals(List.of("out.txt"), list(f.getParent()));
+    }
+
+    @Test
+    void abandoned() throws IOException {
+        Path f = dir.resolve("out.txt");
+        try (AtomicFileOutput out = new AtomicFileOutput(f.toFile())) {
+            out.getStream().write(1);
+            List<String> files = list(dir);
+            assertEquals(1, files.size());
+            assertTrue(files.get(0).startsWith(".out.txt."), files.get(0));
+            assertTrue(files.get(0).endsWith(".stapler-tmp"), files.get(0));
+        }
+        assertEquals(List.of(), list(dir));
+    }
+
+    @Test
+    void permissionsAreKept() throws IOException {
+        Path f = dir.resolve("run.sh");
+        Files.writeString(f, "old");
+        if (Files.getFileAttributeView(f, PosixFileAttributeView.class) == null) {
+            return;
+        }
+        Files.setPosixFilePermissions(f, PosixFilePermissions.fromString("rwxr-x---"));
+        assertTrue(write(f, "new"));
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(f)));
+    }
+
+    @Test
+    void symbolicLinksAreWrittenThrough() throws IOException {
+        Path real = Files.createDirectories(dir.resolve("real")).resolve("out.txt");
+        Files.writeString(real, "old");
+        Path link = dir.resolve("link.txt");
+        try {
+            Files.createSymbolicLink(link, dir.relativize(real));
+        } catch (UnsupportedOperationException | IOException e) {
+            return; // not available on this file system
+        }
+        assertTrue(write(link, "new"));
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals("new", Files.readString(real));
+        assertEquals(List.of("out.txt"), list(real.getParent()));
+
+        // a dangling link creates the file it points to
+        Files.delete(real);
+        assertTrue(write(link, "again"));
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals("again", Files.readString(real));
+    }
+
+    private static boolean write(Path f, String content) throws IOException {
+        try (AtomicFileOutput out = new AtomicFileOutput(f.toFile())) {
+            out.getStream().write(content.getBytes(StandardCharsets.UTF_8));
+            return out.commit();
+        }
+    }
+
+    private static List<String> list(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class ExpressionScannerTest {
+
+    private final List<String> keys = new ArrayList<>();
+
+    private final ExpressionScanner scanner = new ExpressionScanner(keys::add);
+
+    @Test
+    void noExpression() {
+        assertKeys("Hello, world. $ { } $x {y} %z '%w'");
+    }
+
+    @Test
+    void key() {
+        assertKeys("${%Hello}", "Hello");
+        assertKeys("a ${%Hello} b ${%World} c", "Hello", "World");
+        assertKeys("$${%Hello}", "Hello");
+        assertKeys("${%}", "");
+    }
+
+    @Test
+    void parametersAreStripped() {
+        assertKeys("${%Hello(a,b)}", "Hello");
+        assertKeys("${%Hello (a)}", "Hello ");
+        assertKeys("${it.foo('%Hello(x)')}", "Hello");
+        assertKeys("${%(a)}", "");
+    }
+
+    @Test
+    void literals() {
+        assertKeys("${it.foo('%Hello')}", "Hello");
+        assertKeys("${it.foo(\"%Hello\")}", "Hello");
+        assertKeys("${a('%One', \"%Two\") + '%Three'}", "One", "Two", "Three");
+        assertKeys("${a(\"%It's\")}", "It's");
+        assertKeys("${a('%Say \"hi\"')}", "Say \"hi\"");
+        // the literal must not be empty, nor unclosed
+        assertKeys("${a('%') + '%x'}", "x");
+        assertKeys("${a('%'}");
+        assertKeys("${a('%x)}");
+        assertKeys("${a('x') + 'y%'}");
+    }
+
+    @Test
+    void nestedExpressionsCloseTogether() {
+        assertKeys("${a ${%b}", "b");
+        assertKeys("${%a ${%b}", "a ${%b", "b");
+        // the literal is also found by the outer expression, which includes the inner one
+        assertKeys("${x('%a') ${'%b'}", "a", "b", "b");
+        assertKeys("${${${%c}} ${%d}", "c", "d");
+    }
+
+    @Test
+    void keysSplitAcrossChunks() {
+        String text = "a ${%Hello(x)} b ${it.foo('%World')} ${${%c}";
+        List<String> expected = List.of("Hello", "World", "c");
+        for (int split = 0; split <= text.length(); split++) {
+            keys.clear();
+            char[] ch = ("##" + text + "##").toCharArray();
+            scanner.scan(ch, 2, split);
+            scanner.scan(ch, 2 + split, text.length() - split);
+            assertTrue(scanner.end());
+            assertEquals(expected, keys, "split at " + split);
+        }
+
+        keys.clear();
+        for (char c : text.toCharArray()) {
+            scanner.scan(String.valueOf(c));
+        }
+        assertTrue(scanner.end());
+        assertEquals(expected, keys);
+    }
+
+    @Test
+    void unclosedExpression() {
+        scanner.scan("${%Hello} ${%World");
+        assertFalse(scanner.end());
+        assertEquals(List.of("Hello"), keys);
+
+        // nothing is carried over to the next block
+        keys.clear();
+        scanner.scan("} ${%Again}");
+        assertTrue(scanner.end());
+        assertEquals(List.of("Again"), keys);
+
+        scanner.scan("$");
+        assertTrue(scanner.end());
+        scanner.scan("{%x}");
+        assertTrue(scanner.end());
+        assertEquals(List.of("Again"), keys);
+    }
+
+    @Test
+    void longExpressions() {
+        String key = "k".repeat(1000);
+        assertKeys("${".repeat(10) + "%" + key + "}", key);
+        assertKeys("${" + "'%a' ".repeat(1000) + "}", Collections.nCopies(1000, "a").toArray(new String[0]));
+    }
+
+    @Test
+    void sameAsRegularExpressionsOnRandomInputs() {
+        String alphabet = "$${{}}%%''\"\"(a ";
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            char[] chars = new char[random.nextInt(30)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            String text = new String(chars);
+            List<String> expected = findExpressions(text);
+
+            keys.clear();
+            int split = random.nextInt(chars.length + 1);
+            scanner.scan(chars, 0, split);
+            scanner.scan(chars, split, chars.length - split);
+            boolean closed = scanner.end();
+            assertEquals(expected != null, closed, text);
+            if (expected != null) {
+                assertEquals(expected, keys, text);
+            }
+        }
+    }
+
+    private void assertKeys(String text, String... expected) {
+        keys.clear();
+        scanner.scan(text);
+        assertTrue(scanner.end(), text);
+        assertEquals(List.of(expected), keys, text);
+        assertEquals(List.of(expected), findExpressions(text), text);
+    }
+
+    private static final Pattern RESOURCE_LITERAL_STRING = Pattern.compile("(\"%[^\"]+\")|('%[^']+')");
+
+    /**
+     * The historical implementation, kept as the reference.
+     *
+     * @return
+     *      null if an expression isn't closed.
+     */
+    private static List<String> findExpressions(String buf) {
+        List<String> keys = new ArrayList<>();
+        int idx = -1;
+        do {
+            idx = buf.indexOf("${", idx + 1);
+            if (idx < 0) {
+                break;
+            }
+            int end = buf.indexOf("}", idx);
+            if (end == -1) {
+                return null;
+            }
+            String exp = buf.substring(idx + 2, end);
+            if (exp.startsWith("%")) {
+                keys.add(stripParameters(exp.substring(1)));
+            } else {
+                Matcher m = RESOURCE_LITERAL_STRING.matcher(exp);
+                while (m.find()) {
+                    String literal = m.group();
+                    keys.add(stripParameters(literal.substring(2, literal.length() - 1)));
+                }
+            }
+        } while (true);
+        return keys;
+    }
+
+    private static String stripParameters(String key) {
+        int op = key.indexOf('(');
+        return op >= 0 ? key.substring(0, op) : key;
+    }
+}
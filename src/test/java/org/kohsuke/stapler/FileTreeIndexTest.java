@@ -0,0 +1,109 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileTreeIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private final RecordingLog log = new RecordingLog();
+
+    @Test
+    void loopBackToAParent() throws IOException {
+        Path b = Files.createDirectories(dir.resolve("a/b"));
+        Files.writeString(b.resolve("x.jelly"), "<j:jelly/>");
+        try {
+            Files.createSymbolicLink(b.resolve("loop"), b.relativize(dir));
+        } catch (UnsupportedOperationException | IOException e) {
+            return; // not available on this file system
+        }
+
+        FileTreeIndex index = new FileTreeIndex(0, log);
+        assertEquals(List.of("a"), names(index.list(dir.toFile())));
+        List<FileTreeIndex.Entry> entries = index.list(b.toFile());
+        assertEquals(List.of("loop", "x.jelly"), names(entries));
+        assertTrue(entries.get(0).isDirectory());
+        assertNull(index.list(b.resolve("loop").toFile()));
+        assertEquals(1, log.warnings.size(), log.warnings.toString());
+        assertTrue(log.warnings.get(0).contains("links back to one of its parents"), log.warnings.get(0));
+
+        // a link elsewhere is followed
+        Path other = Files.createDirectories(dir.resolve("other"));
+        Files.writeString(other.resolve("y.jelly"), "<j:jelly/>");
+        Files.createSymbolicLink(b.resolve("other"), b.relativize(other));
+        index = new FileTreeIndex(0, log);
+        assertEquals(List.of("a", "other"), names(index.list(dir.toFile())));
+        assertEquals(List.of("y.jelly"), names(index.list(b.resolve("other").toFile())));
+    }
+
+    @Test
+    void depthOfOne() throws IOException {
+        Files.createDirectories(dir.resolve("sub/deeper"));
+        Files.writeString(dir.resolve("top.jelly"), "<j:jelly/>");
+        Files.writeString(dir.resolve("sub/inner.jelly"), "<j:jelly/>");
+
+        FileTreeIndex index = new FileTreeIndex(1, log);
+        List<FileTreeIndex.Entry> entries = index.list(dir.toFile());
+        assertEquals(List.of("sub", "top.jelly"), names(entries));
+        assertTrue(entries.get(0).isDirectory());
+        assertTrue(entries.get(1).isFile());
+        assertEquals(10, entries.get(1).length());
+        assertNull(index.list(dir.resolve("sub").toFile()));
+        assertEquals(List.of(), log.warnings);
+    }
+
+    @Test
+    void depthOfN() throws IOException {
+        Path d = dir;
+        for (int depth = 1; depth <= 5; depth++) {
+            d = Files.createDirectories(d.resolve("d" + depth));
+            Files.writeString(d.resolve("f" + depth), "");
+        }
+
+        for (int maxDepth = 2; maxDepth <= 6; maxDepth++) {
+            FileTreeIndex index = new FileTreeIndex(maxDepth, log);
+            Path p = dir;
+            for (int depth = 0; depth <= 5; depth++) {
+                List<FileTreeIndex.Entry> entries = index.list(p.toFile());
+                if (depth < maxDepth) {
+                    assertNotNull(entries, maxDepth + " " + p);
+                    assertEquals(names(expected(p)), names(entries), maxDepth + " " + p);
+                } else {
+                    assertNull(entries, maxDepth + " " + p);
+                }
+                p = p.resolve("d" + (depth + 1));
+            }
+        }
+
+        // no limit
+        FileTreeIndex index = new FileTreeIndex(0, log);
+        assertEquals(List.of("f5"), names(index.list(d.toFile())));
+    }
+
+    private static List<FileTreeIndex.Entry> expected(Path p) {
+        List<FileTreeIndex.Entry> entries = new FileTreeIndex(1, null).list(p.toFile());
+        assertNotNull(entries);
+        return entries;
+    }
+
+    private static List<String> names(List<FileTreeIndex.Entry> entries) {
+        List<String> names = new ArrayList<>();
+        for (FileTreeIndex.Entry e : entries) {
+            names.add(e.getName());
+        }
+        return names;
+    }
+}
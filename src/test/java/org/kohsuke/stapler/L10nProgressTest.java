@@ -0,0 +1,125 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class L10nProgressTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keyLevelCoverage() throws IOException {
+        bundles();
+        L10nProgress progress = new L10nProgress();
+        progress.setKeyLevel(true, true);
+        L10nProgress.HudsonMessages m = parse(progress);
+
+        assertEquals(3, m.getCnt(""));
+        // "ja" has a, not b nor c, and x that isn't in the default bundle any more
+        assertEquals(1, m.getCnt("ja"));
+        assertEquals(2, m.getMissing("ja"));
+        assertEquals(1, m.getObsolete("ja"));
+        assertEquals(List.of("b", "c"), m.getMissingKeys("ja"));
+        assertEquals(List.of("x"), m.getObsoleteKeys("ja"));
+
+        assertEquals(3, m.getCnt("fr"));
+        assertEquals(0, m.getMissing("fr"));
+        assertEquals(0, m.getObsolete("fr"));
+        assertEquals(List.of(), m.getMissingKeys("fr"));
+        assertEquals(List.of(), m.getObsoleteKeys("fr"));
+
+        // no bundle at all isn't the same as an empty one
+        assertEquals(-1, m.getMissing("de"));
+        assertNull(m.getMissingKeys("de"));
+
+        assertEquals(1, progress.getTotal().getCnt("ja"));
+    }
+
+    @Test
+    void countsWithoutKeys() throws IOException {
+        bundles();
+        L10nProgress progress = new L10nProgress();
+        progress.setKeyLevel(true, false);
+        L10nProgress.HudsonMessages m = parse(progress);
+
+        assertEquals(1, m.getCnt("ja"));
+        assertEquals(2, m.getMissing("ja"));
+        assertEquals(1, m.getObsolete("ja"));
+        assertNull(m.getMissingKeys("ja"));
+        assertNull(m.getObsoleteKeys("ja"));
+    }
+
+    @Test
+    void messageCounts() throws IOException {
+        bundles();
+        L10nProgress.HudsonMessages m = parse(new L10nProgress());
+
+        // every message in the bundle counts, obsolete or not
+        assertEquals(2, m.getCnt("ja"));
+        assertEquals(-1, m.getMissing("ja"));
+        assertEquals(-1, m.getObsolete("ja"));
+    }
+
+    @Test
+    void defaultBundleFromTheIndex() throws IOException {
+        Files.writeString(dir.resolve("Messages_ja.properties"), "a=A\n");
+        FileTreeIndex index = new FileTreeIndex(0, null);
+        index.list(dir.toFile());
+        // not in the index, so it's as if it wasn't there, just like for the localized bundles
+        Files.writeString(dir.resolve("Messages.properties"), "a=A\nb=B\n");
+        Files.writeString(dir.resolve("Messages_fr.properties"), "a=A\n");
+
+        L10nProgress progress = new L10nProgress();
+        progress.setIndex(index);
+        progress.setKeyLevel(true, true);
+        L10nProgress.HudsonMessages m = parse(progress);
+        assertEquals(0, m.getCnt(""));
+        assertEquals(0, m.getCnt("ja"));
+        assertEquals(1, m.getObsolete("ja"));
+        assertFalse(m.has("fr"));
+    }
+
+    @Test
+    void unreadableBundles() throws IOException {
+        bundles();
+        // matches the name of a bundle but can't be read as one
+        Files.createDirectories(dir.resolve("Messages_de.properties"));
+
+        assertThrows(UncheckedIOException.class, () -> new L10nProgress().parse(dir.toFile()));
+
+        List<File> failed = new ArrayList<>();
+        L10nProgress progress = new L10nProgress();
+        progress.setErrorHandler((file, e) -> failed.add(file));
+        L10nProgress.HudsonMessages m = parse(progress);
+        assertEquals(List.of(dir.resolve("Messages_de.properties").toFile()), failed);
+        assertEquals(0, m.getCnt("de"));
+        assertEquals(2, m.getCnt("ja"));
+    }
+
+    private void bundles() throws IOException {
+        Files.writeString(dir.resolve("Messages.properties"), "a=A\nb=B\nc=C\n");
+        Files.writeString(dir.resolve("Messages_ja.properties"), "a=A\nx=X\n");
+        Files.writeString(dir.resolve("Messages_fr.properties"), "a=A\nb=B\nc=C\n");
+    }
+
+    private L10nProgress.HudsonMessages parse(L10nProgress progress) {
+        List<L10nProgress.HudsonMessages> rows = new ArrayList<>();
+        progress.setListener(rows::add);
+        progress.parse(dir.toFile());
+        assertEquals(1, rows.size());
+        return rows.get(0);
+    }
+}
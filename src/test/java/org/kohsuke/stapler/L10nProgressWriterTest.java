@@ -0,0 +1,314 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class L10nProgressWriterTest {
+
+    /**
+     * Name of a directory with all the characters that need escaping in either format.
+     */
+    private static final String WEIRD = "we,ird \"name\"\r\n\u0001x";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void csv() throws IOException {
+        fixture();
+        List<List<String>> rows = parseCsv(write("csv", true));
+        assertEquals(
+                List.of(
+                        List.of(
+                                "path",
+                                "directory",
+                                "locale",
+                                "messages",
+                                "ratio",
+                                "missing",
+                                "obsolete",
+                                "missingKeys",
+                                "obsoleteKeys"),
+                        List.of("plain", "plain", "", "2", "100", "0", "0", "", ""),
+                        List.of("plain", "plain", "ja", "2", "100", "0", "1", "", "z"),
+                        List.of(WEIRD, WEIRD, "", "3", "100", "0", "0", "", ""),
+                        List.of(WEIRD, WEIRD, "ja", "1", "33", "2", "1", "b q\u0001\"k", "old\rx"),
+                        List.of("total", "total", "", "5", "100", "0", "0", "", ""),
+                        List.of("total", "total", "ja", "3", "60", "2", "2", "", "")),
+                rows);
+    }
+
+    @Test
+    void json() throws IOException {
+        fixture();
+        String json = write("json", true);
+        for (char ch : json.toCharArray()) {
+            assertTrue(ch >= 0x20 || ch == '\n', json);
+        }
+
+        Map<?, ?> root = (Map<?, ?>) new JsonParser(json).parse();
+        List<?> dirs = (List<?>) root.get("directories");
+        assertEquals(2, dirs.size());
+        assertEquals(
+                Map.of(
+                        "path", "plain",
+                        "directory", "plain",
+                        "messages", 2L,
+                        "locales",
+                                Map.of(
+                                        "ja",
+                                        Map.of(
+                                                "messages", 2L,
+                                                "ratio", 100L,
+                                                "missing", 0L,
+                                                "obsolete", 1L,
+                                                "missingKeys", List.of(),
+                                                "obsoleteKeys", List.of("z")))),
+                dirs.get(0));
+        assertEquals(
+                Map.of(
+                        "path", WEIRD,
+                        "directory", WEIRD,
+                        "messages", 3L,
+                        "locales",
+                                Map.of(
+                                        "ja",
+                                        Map.of(
+                                                "messages", 1L,
+                                                "ratio", 33L,
+                                                "missing", 2L,
+                                                "obsolete", 1L,
+                                                "missingKeys", List.of("b", "q\u0001\"k"),
+                                                "obsoleteKeys", List.of("old\rx")))),
+                dirs.get(1));
+        assertEquals(
+                Map.of(
+                        "messages",
+                        5L,
+                        "locales",
+                        Map.of("ja", Map.of("messages", 3L, "ratio", 60L, "missing", 2L, "obsolete", 2L))),
+                root.get("total"));
+    }
+
+    @Test
+    void noDirectories() throws IOException {
+        String json = write("json", false);
+        assertTrue(json.startsWith("{\"directories\":[],"), json);
+        assertEquals(
+                Map.of("directories", List.of(), "total", Map.of("messages", 0L, "locales", Map.of())),
+                new JsonParser(json).parse());
+
+        List<List<String>> rows = parseCsv(write("csv", false));
+        assertEquals(List.of("path", "directory", "locale", "messages", "ratio"), rows.get(0));
+        for (List<String> row : rows.subList(1, rows.size())) {
+            assertEquals("total", row.get(0));
+        }
+    }
+
+    /**
+     * Creates two directories, where "ja" misses keys in one and has obsolete keys in both.
+     */
+    private void fixture() throws IOException {
+        Path plain = Files.createDirectories(dir.resolve("plain"));
+        Files.writeString(plain.resolve("Messages.properties"), "a=A\nb=B\n");
+        Files.writeString(plain.resolve("Messages_ja.properties"), "a=A\nb=B\nz=Z\n");
+        Path weird = Files.createDirectories(dir.resolve(WEIRD));
+        Files.writeString(weird.resolve("Messages.properties"), "a=A\nb=B\nq\\u0001\"k=Q\n");
+        Files.writeString(weird.resolve("Messages_ja.properties"), "a=A\nold\\rx=X\n");
+    }
+
+    private String write(String format, boolean keyLevel) throws IOException {
+        L10nProgress progress = new L10nProgress();
+        progress.setKeyLevel(keyLevel, true);
+        StringWriter out = new StringWriter();
+        L10nProgressWriter writer = L10nProgressWriter.create(format, progress, out, dir);
+        progress.setListener(m -> {
+            try {
+                writer.row(m);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        progress.parseRecursively(dir.toFile());
+        writer.finish();
+        return out.toString();
+    }
+
+    /**
+     * Reads the records of RFC 4180 CSV, where each record ends with a line feed.
+     */
+    private static List<List<String>> parseCsv(String csv) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < csv.length(); i++) {
+            char ch = csv.charAt(i);
+            if (quoted) {
+                if (ch != '"') {
+                    field.append(ch);
+                } else if (i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (ch == '"') {
+                assertEquals(0, field.length(), csv);
+                quoted = true;
+            } else if (ch == ',' || ch == '\n') {
+                row.add(field.toString());
+                field.setLength(0);
+                if (ch == '\n') {
+                    rows.add(row);
+                    row = new ArrayList<>();
+                }
+            } else {
+                assertTrue(ch != '\r', csv);
+                field.append(ch);
+            }
+        }
+        assertTrue(!quoted && row.isEmpty() && field.length() == 0, csv);
+        return rows;
+    }
+
+    /**
+     * Reads strict JSON into maps, lists, strings, longs, booleans and nulls.
+     */
+    private static final class JsonParser {
+        private final String s;
+        private int i;
+
+        JsonParser(String s) {
+            this.s = s;
+        }
+
+        Object parse() {
+            Object v = value();
+            skipSpace();
+            assertEquals(s.length(), i, s);
+            return v;
+        }
+
+        private Object value() {
+            skipSpace();
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '{':
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    i++;
+                    if (!next('}')) {
+                        do {
+                            skipSpace();
+                            String key = string();
+                            expect(':');
+                            assertEquals(null, map.put(key, value()), s);
+                        } while (next(','));
+                        expect('}');
+                    }
+                    return map;
+                case '[':
+                    List<Object> list = new ArrayList<>();
+                    i++;
+                    if (!next(']')) {
+                        do {
+                            list.add(value());
+                        } while (next(','));
+                        expect(']');
+                    }
+                    return list;
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    int start = i;
+                    while (i < s.length() && (s.charAt(i) == '-' || Character.isDigit(s.charAt(i)))) {
+                        i++;
+                    }
+                    return Long.parseLong(s.substring(start, i));
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder b = new StringBuilder();
+            while (true) {
+                char ch = s.charAt(i++);
+                if (ch == '"') {
+                    return b.toString();
+                }
+                assertTrue(ch >= 0x20, "Unescaped control character in " + s);
+                if (ch != '\\') {
+                    b.append(ch);
+                    continue;
+                }
+                ch = s.charAt(i++);
+                switch (ch) {
+                    case 'b':
+                        b.append('\b');
+                        break;
+                    case 'f':
+                        b.append('\f');
+                        break;
+                    case 'n':
+                        b.append('\n');
+                        break;
+                    case 'r':
+                        b.append('\r');
+                        break;
+                    case 't':
+                        b.append('\t');
+                        break;
+                    case 'u':
+                        b.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default:
+                        assertTrue(ch == '"' || ch == '\\' || ch == '/', "Bad escape in " + s);
+                        b.append(ch);
+                }
+            }
+        }
+
+        private Object literal(String text, Object value) {
+            assertTrue(s.startsWith(text, i), s);
+            i += text.length();
+            return value;
+        }
+
+        private boolean next(char ch) {
+            skipSpace();
+            if (i < s.length() && s.charAt(i) == ch) {
+                i++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char ch) {
+            assertTrue(next(ch), "Expected " + ch + " at " + i + " in " + s);
+        }
+
+        private void skipSpace() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+        }
+    }
+}
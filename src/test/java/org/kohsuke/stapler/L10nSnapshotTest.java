@@ -0,0 +1,174 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class L10nSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private final RecordingLog log = new RecordingLog();
+
+    @Test
+    void roundTrip() throws IOException {
+        File messages = messages("a", "Hello=Hello\nWorld=World\n", "Hello=Konnichiwa\n");
+        File file = dir.resolve("target/snapshot.bin").toFile();
+
+        L10nSnapshot snapshot = L10nSnapshot.load(file, true, log);
+        assertFalse(snapshot.exists());
+        assertNull(snapshot.reuse(messages, bundles(messages)));
+        record(snapshot, messages);
+        snapshot.save(file, Map.of("", 2, "ja", 1), 10);
+
+        snapshot = L10nSnapshot.load(file, true, log);
+        assertTrue(snapshot.exists());
+        assertEquals(1, snapshot.getHistory().size());
+        assertEquals(Map.of("", 2, "ja", 1), snapshot.getHistory().get(0).counts);
+        assertTrue(snapshot.getHistory().get(0).timestamp > 0);
+
+        Map<String, L10nSnapshot.Bundle> reused = snapshot.reuse(messages, bundles(messages));
+        assertEquals(2, reused.get("").count);
+        assertEquals(1, reused.get("ja").count);
+        assertEquals(0, reused.get("ja").obsolete);
+        assertEquals(1, snapshot.getHits());
+        assertEquals(1, snapshot.size());
+        assertEquals(List.of(), log.warnings);
+    }
+
+    @Test
+    void changedBundles() throws IOException {
+        File a = messages("a", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File b = messages("b", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File c = messages("c", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File file = dir.resolve("snapshot.bin").toFile();
+        L10nSnapshot snapshot = L10nSnapshot.load(file, false, log);
+        record(snapshot, a);
+        record(snapshot, b);
+        record(snapshot, c);
+        snapshot.save(file, Map.of(), 10);
+
+        Files.writeString(b.toPath().resolve("Messages_ja.properties"), "Hello=Konnichiwa\nWorld=Sekai\n");
+        Files.writeString(c.toPath().resolve("Messages_fr.properties"), "Hello=Bonjour\n");
+        snapshot = L10nSnapshot.load(file, false, log);
+        assertNotNull(snapshot.reuse(a, bundles(a)));
+        assertNull(snapshot.reuse(b, bundles(b)));
+        assertNull(snapshot.reuse(c, bundles(c)));
+        assertEquals(1, snapshot.getHits());
+    }
+
+    @Test
+    void history() throws IOException {
+        File messages = messages("a", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File file = dir.resolve("snapshot.bin").toFile();
+        for (int run = 1; run <= 5; run++) {
+            L10nSnapshot snapshot = L10nSnapshot.load(file, false, log);
+            assertEquals(Math.min(run - 1, 3), snapshot.getHistory().size());
+            record(snapshot, messages);
+            snapshot.save(file, Map.of("ja", run), 3);
+        }
+        L10nSnapshot snapshot = L10nSnapshot.load(file, false, log);
+        int[] kept = snapshot.getHistory().stream().mapToInt(t -> t.counts.get("ja")).toArray();
+        assertEquals("[3, 4, 5]", Arrays.toString(kept));
+        assertNotNull(snapshot.reuse(messages, bundles(messages)));
+
+        // keeping less drops the oldest, but never the run being saved
+        snapshot.save(file, Map.of("ja", 6), 0);
+        snapshot = L10nSnapshot.load(file, false, log);
+        assertEquals(1, snapshot.getHistory().size());
+        assertEquals(Map.of("ja", 6), snapshot.getHistory().get(0).counts);
+    }
+
+    @Test
+    void otherMode() throws IOException {
+        File messages = messages("a", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File file = dir.resolve("snapshot.bin").toFile();
+        L10nSnapshot snapshot = L10nSnapshot.load(file, false, log);
+        record(snapshot, messages);
+        snapshot.save(file, Map.of("ja", 1), 10);
+
+        snapshot = L10nSnapshot.load(file, true, log);
+        assertFalse(snapshot.exists());
+        assertNull(snapshot.reuse(messages, bundles(messages)));
+        assertEquals(List.of(), log.warnings);
+    }
+
+    @Test
+    void truncated() throws IOException {
+        File messages = messages("a", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File file = dir.resolve("snapshot.bin").toFile();
+        L10nSnapshot snapshot = L10nSnapshot.load(file, false, log);
+        record(snapshot, messages);
+        snapshot.save(file, Map.of("ja", 1), 10);
+        byte[] data = Files.readAllBytes(file.toPath());
+
+        for (int length = 0; length < data.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(data, length));
+            log.warnings.clear();
+            snapshot = L10nSnapshot.load(file, false, log);
+            assertFalse(snapshot.exists(), "truncated to " + length);
+            assertNull(snapshot.reuse(messages, bundles(messages)), "truncated to " + length);
+            assertEquals(1, log.warnings.size(), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void otherVersion() throws IOException {
+        File messages = messages("a", "Hello=Hello\n", "Hello=Konnichiwa\n");
+        File file = dir.resolve("snapshot.bin").toFile();
+        L10nSnapshot snapshot = L10nSnapshot.load(file, false, log);
+        record(snapshot, messages);
+        snapshot.save(file, Map.of("ja", 1), 10);
+        byte[] data = Files.readAllBytes(file.toPath());
+        ByteBuffer.wrap(data).putInt(0, ByteBuffer.wrap(data).getInt(0) + 1);
+        Files.write(file.toPath(), data);
+
+        snapshot = L10nSnapshot.load(file, false, log);
+        assertFalse(snapshot.exists());
+        assertNull(snapshot.reuse(messages, bundles(messages)));
+        assertEquals(List.of(), log.warnings);
+    }
+
+    /**
+     * Creates a message directory with a default and a Japanese bundle.
+     */
+    private File messages(String name, String defaultBundle, String japaneseBundle) throws IOException {
+        Path d = Files.createDirectories(dir.resolve(name));
+        Files.writeString(d.resolve("Messages.properties"), defaultBundle);
+        Files.writeString(d.resolve("Messages_ja.properties"), japaneseBundle);
+        return d.toFile();
+    }
+
+    /**
+     * Lists the bundles in the directory, keyed by locale.
+     */
+    private static Map<String, FileTreeIndex.Entry> bundles(File dir) {
+        Map<String, FileTreeIndex.Entry> bundles = new TreeMap<>();
+        for (FileTreeIndex.Entry e : new FileTreeIndex(0, null).list(dir)) {
+            String name = e.getName();
+            bundles.put(name.startsWith("Messages_") ? name.substring(9, name.indexOf('.')) : "", e);
+        }
+        return bundles;
+    }
+
+    private static void record(L10nSnapshot snapshot, File dir) {
+        for (Map.Entry<String, FileTreeIndex.Entry> e : bundles(dir).entrySet()) {
+            snapshot.record(dir, e.getKey(), e.getValue(), e.getKey().isEmpty() ? 2 : 1, 0);
+        }
+    }
+}
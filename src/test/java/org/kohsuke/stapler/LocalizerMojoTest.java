@@ -0,0 +1,103 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.kohsuke.stapler.TestProject.contents;
+import static org.kohsuke.stapler.TestProject.project;
+import static org.kohsuke.stapler.TestProject.write;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LocalizerMojoTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sameForAnyNumberOfThreads() throws Exception {
+        Path serial = fixture("serial");
+        Path parallel = fixture("parallel");
+        List<String> warnings = run(serial, 1);
+        assertTrue(warnings.stream().anyMatch(w -> w.contains("Unused")), warnings.toString());
+        assertEquals(warnings, run(parallel, 8));
+
+        Map<String, String> expected = contents(serial);
+        String ja = expected.get("src/main/resources/views/v3/index_ja.properties");
+        assertTrue(ja.startsWith("Key\\ 0=Existing\n"), ja);
+        assertTrue(ja.indexOf("Key\\ 1=") < ja.indexOf("Key\\ 2="), ja);
+        assertTrue(expected.containsKey("src/main/resources/views/v9/config_fr.properties"));
+        assertEquals(expected, contents(parallel));
+    }
+
+    @Test
+    void timingReportWithoutLocales() throws Exception {
+        Path base = dir.resolve("project");
+        write(
+                base.resolve("src/main/resources/views/index.jelly"),
+                "<j:jelly xmlns:j='jelly:core'>${%Hello}</j:jelly>");
+        RecordingLog log = new RecordingLog();
+        LocalizerMojo mojo = new LocalizerMojo();
+        mojo.setLog(log);
+        mojo.project = project(base);
+        mojo.locale = "all";
+        mojo.timing = true;
+        mojo.execute();
+
+        assertEquals(1, log.warnings.size(), log.warnings.toString());
+        assertTrue(Files.isRegularFile(base.resolve("target/stapler-timing-l10n.txt")));
+        assertEquals(
+                List.of("src/main/resources/views/index.jelly", "target/stapler-timing-l10n.txt"),
+                new ArrayList<>(contents(base).keySet()));
+    }
+
+    /**
+     * Creates views with varying numbers of keys in many directories, some of which already have
+     * resource files with some of the keys.
+     */
+    private Path fixture(String name) throws IOException {
+        Path base = dir.resolve(name);
+        Path res = base.resolve("src/main/resources");
+        for (int i = 0; i < 20; i++) {
+            Path views = res.resolve("views/v" + i);
+            for (String view : List.of("index", "config")) {
+                StringBuilder jelly = new StringBuilder("<j:jelly xmlns:j='jelly:core'>");
+                for (int k = 0; k < (i * 3) % 11 + 1; k++) {
+                    jelly.append("<p>${%Key ").append(k).append("}</p>");
+                }
+                jelly.append("x".repeat(i * 500)).append("</j:jelly>");
+                write(views.resolve(view + ".jelly"), jelly.toString());
+            }
+            if (i % 3 == 0) {
+                write(views.resolve("index_ja.properties"), "Key\\ 0=Existing\nUnused=Gone\n");
+            }
+        }
+        write(base.resolve("pom.xml"), "<project/>");
+        return base;
+    }
+
+    /**
+     * Runs the goal and returns the warnings, with the paths made relative to the project.
+     */
+    private static List<String> run(Path base, int threads) throws MojoExecutionException {
+        RecordingLog log = new RecordingLog();
+        LocalizerMojo mojo = new LocalizerMojo();
+        mojo.setLog(log);
+        mojo.project = project(base);
+        mojo.locale = "ja,fr";
+        mojo.threads = threads;
+        mojo.execute();
+        List<String> warnings = new ArrayList<>();
+        for (String w : log.warnings) {
+            warnings.add(w.replace(base.toString(), ""));
+        }
+        return warnings;
+    }
+}
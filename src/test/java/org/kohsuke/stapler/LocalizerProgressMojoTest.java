@@ -0,0 +1,69 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.kohsuke.stapler.TestProject.project;
+import static org.kohsuke.stapler.TestProject.write;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LocalizerProgressMojoTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sameForAnyNumberOfThreads() throws Exception {
+        Path base = fixture();
+        for (String format : new String[] {"csv", "json"}) {
+            String serial = run(base, format, 1);
+            assertTrue(serial.contains("p2/d0/d1/d2/m38"), serial);
+            assertEquals(serial, run(base, format, 8), format);
+        }
+    }
+
+    /**
+     * Creates message directories nested to different depths, with bundles of different sizes,
+     * next to directories that have none.
+     */
+    private Path fixture() throws IOException {
+        Path base = dir.resolve("project");
+        Path res = base.resolve("src/main/resources");
+        for (int i = 0; i < 40; i++) {
+            Path d = res.resolve("p" + (i % 4));
+            for (int depth = 0; depth < i % 5; depth++) {
+                d = d.resolve("d" + depth);
+            }
+            d = d.resolve("m" + i);
+            StringBuilder messages = new StringBuilder();
+            for (int k = 0; k < i * 5 + 1; k++) {
+                messages.append("key").append(k).append("=Value\n");
+            }
+            write(d.resolve("Messages.properties"), messages.toString());
+            write(d.resolve("Messages_ja.properties"), "key0=Value\nold=Value\n");
+            if (i % 2 == 0) {
+                write(d.resolve("Messages_fr.properties"), messages.toString());
+            }
+            write(d.resolve("sub/Messages_de.properties"), "key0=Value\n");
+            Files.createDirectories(d.resolve("empty"));
+        }
+        write(base.resolve("pom.xml"), "<project/>");
+        return base;
+    }
+
+    private static String run(Path base, String format, int threads) throws MojoExecutionException, IOException {
+        LocalizerProgressMojo mojo = new LocalizerProgressMojo();
+        mojo.setLog(new RecordingLog());
+        mojo.project = project(base);
+        mojo.format = format;
+        mojo.listKeys = true;
+        mojo.threads = threads;
+        mojo.execute();
+        return Files.readString(base.resolve("target/l10n-progress." + format));
+    }
+}
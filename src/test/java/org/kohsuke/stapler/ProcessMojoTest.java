@@ -0,0 +1,120 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.kohsuke.stapler.TestProject.contents;
+import static org.kohsuke.stapler.TestProject.helper;
+import static org.kohsuke.stapler.TestProject.project;
+import static org.kohsuke.stapler.TestProject.write;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProcessMojoTest {
+
+    @TempDir
+    Path dir;
+
+    private final RecordingLog log = new RecordingLog();
+
+    @Test
+    void sameAsTheSeparateGoals() throws Exception {
+        Path separate = fixture("separate");
+        Path process = fixture("process");
+        runSeparately(separate, false);
+        runProcess(process, false);
+
+        Map<String, String> expected = contents(separate);
+        assertTrue(expected.containsKey("target/taglib.xml"), expected.keySet().toString());
+        assertTrue(expected.containsKey("target/l10n-progress.csv"), expected.keySet().toString());
+        assertTrue(expected.get("src/main/resources/views/index_ja.properties").contains("World="));
+        assertEquals(expected, contents(process));
+    }
+
+    @Test
+    void sameAsTheSeparateGoalsIncrementally() throws Exception {
+        Path separate = fixture("separate");
+        Path process = fixture("process");
+        for (int run = 0; run < 2; run++) {
+            runSeparately(separate, true);
+            runProcess(process, true);
+            for (Path base : List.of(separate, process)) {
+                write(base.resolve("src/main/resources/lib/form/textbox.jelly"), textbox("Changed " + run));
+            }
+        }
+        runSeparately(separate, true);
+        runProcess(process, true);
+        assertEquals(contents(separate), contents(process));
+    }
+
+    /**
+     * Creates a project with two tag libraries, views, resource files and message bundles.
+     */
+    private Path fixture(String name) throws IOException {
+        Path base = dir.resolve(name);
+        Path res = base.resolve("src/main/resources");
+        write(res.resolve("lib/form/taglib"), "Form\nForm controls");
+        write(res.resolve("lib/form/textbox.jelly"), textbox("Text box"));
+        write(
+                res.resolve("lib/form/select.jelly"),
+                "<j:jelly xmlns:j='jelly:core' xmlns:d='jelly:define'><d:invokeBody/></j:jelly>");
+        // a directory that happens to end with .jelly isn't a tag file, but may have views in it
+        write(res.resolve("lib/form/old.jelly/view.jelly"), "<j:jelly xmlns:j='jelly:core'>${%Old}</j:jelly>");
+        write(res.resolve("lib/layout/taglib"), "");
+        write(res.resolve("lib/layout/layout.jelly"), textbox("Layout"));
+        write(res.resolve("views/index.jelly"), "<j:jelly xmlns:j='jelly:core'>${%Hello} ${%World}</j:jelly>");
+        write(res.resolve("views/index_ja.properties"), "Hello=Konnichiwa\n");
+        write(res.resolve("views/Messages.properties"), "a=A\nb=B\n");
+        write(res.resolve("views/Messages_ja.properties"), "a=A\n");
+        write(res.resolve("views/Messages_fr.properties"), "a=A\nb=B\n");
+        write(base.resolve("pom.xml"), "<project/>");
+        return base;
+    }
+
+    private static String textbox(String doc) {
+        return "<j:jelly xmlns:j='jelly:core' xmlns:st='jelly:stapler'>"
+                + "<st:documentation>" + doc + "<st:attribute name='field' use='required'>Field</st:attribute>"
+                + "</st:documentation>${%Label}</j:jelly>";
+    }
+
+    private void runSeparately(Path base, boolean incremental) throws MojoExecutionException {
+        MavenProject project = project(base);
+        TaglibDocMojo taglib = new TaglibDocMojo();
+        taglib.setLog(log);
+        taglib.project = project;
+        taglib.helper = helper();
+        taglib.incremental = incremental;
+        taglib.execute();
+
+        LocalizerMojo localizer = new LocalizerMojo();
+        localizer.setLog(log);
+        localizer.project = project;
+        localizer.locale = "ja";
+        localizer.incremental = incremental;
+        localizer.execute();
+
+        LocalizerProgressMojo progress = new LocalizerProgressMojo();
+        progress.setLog(log);
+        progress.project = project;
+        progress.format = "csv";
+        progress.incremental = incremental;
+        progress.execute();
+    }
+
+    private void runProcess(Path base, boolean incremental) throws MojoExecutionException {
+        ProcessMojo process = new ProcessMojo();
+        process.setLog(log);
+        process.project = project(base);
+        process.helper = helper();
+        process.locale = "ja";
+        process.format = "csv";
+        process.incremental = incremental;
+        process.execute();
+    }
+}
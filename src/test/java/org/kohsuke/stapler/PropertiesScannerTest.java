@@ -0,0 +1,151 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PropertiesScannerTest {
+
+    /**
+     * Characters that matter to the syntax, plus a few that don't, so that random inputs hit every rule.
+     */
+    private static final String ALPHABET = "ab0F=: \t\f\\\\\\\n\n\r#!ut\u00e9";
+
+    @Test
+    void sameAsJavaUtilPropertiesOnRandomInputs() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            char[] chars = new char[random.nextInt(40)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            }
+            assertSameAsJdk(new String(chars));
+        }
+    }
+
+    @Test
+    void keysAndValues() {
+        assertEntries("a=1\nb:2\nc 3\nd\t4\ne\f5\n", "a", "1", "b", "2", "c", "3", "d", "4", "e", "5");
+        assertEntries("a = 1\nb :  2\nc   = = 3\n", "a", "1", "b", "2", "c", "= 3");
+        assertEntries("a\nb=\nc:\n", "a", "", "b", "", "c", "");
+        assertEntries("a=1 \nb=\u00e9\n", "a", "1 ", "b", "\u00e9");
+        assertEntries("\r\n  a=1\r\n\r\n", "a", "1");
+    }
+
+    @Test
+    void escapes() {
+        assertEntries("a\\=b=c\n", "a=b", "c");
+        assertEntries("a\\:b\\ c=d\n", "a:b c", "d");
+        assertEntries("a=\\t\\n\\r\\f\\\\\\q\n", "a", "\t\n\r\f\\q");
+        assertEntries("\\u0041\\u00e9=\\u20AC\n", "A\u00e9", "\u20ac");
+        assertEntries("a=b\\\n", "a", "b");
+        assertEntries("a=b\\", "a", "b");
+    }
+
+    @Test
+    void lineContinuations() {
+        assertEntries("a=1\\\n   2\nb=3\n", "a", "12", "b", "3");
+        assertEntries("a=1\\\r\n\t2\\\r   3\n", "a", "123");
+        assertEntries("a\\\n  b=c\n", "ab", "c");
+        assertEntries("a=\\\\\nb=c\n", "a", "\\", "b", "c");
+        assertEntries("a=\\\\\\\nb\n", "a", "\\b");
+        assertEntries("a=\\u00\\\n  41\n", "a", "A");
+        assertEntries("\\\n\\\na=b\n", "a", "b");
+        assertEntries("\\\n", "", "");
+    }
+
+    @Test
+    void comments() {
+        assertEntries("# a=1\n! b=2\nc=3\n", "c", "3");
+        assertEntries("  # a=1\n\t! b=2\n", new String[0]);
+        assertEntries("# a=1 \\\nb=2\n", "b", "2");
+        assertEntries("a=1\\\n# b=2\n", "a", "1# b=2");
+        assertEntries("a=#1\nb=!2\n", "a", "#1", "b", "!2");
+    }
+
+    @Test
+    void malformedUnicodeEscapes() {
+        for (String s : new String[] {"\\u12=a\n", "a=\\u12\n", "a=\\u12", "a=\\uxyzw\n", "a=\\u\\\n"}) {
+            assertThrows(IllegalArgumentException.class, () -> load(s), s);
+            assertThrows(IllegalArgumentException.class, () -> loadJdk(s), s);
+        }
+        // the values aren't decoded when only the keys are asked for
+        assertEquals(List.of("a", "b"), keys("a=\\u12\nb=\\uxyzw"));
+        assertThrows(IllegalArgumentException.class, () -> keys("\\u12=a"));
+    }
+
+    @Test
+    void duplicateKeys() {
+        assertEquals(List.of("a", "b", "a"), keys("a=1\nb=2\na=3\n"));
+        assertEquals(2, PropertiesScanner.count(buffer("a=1\nb=2\na=3\n")));
+        assertEquals(Map.of("a", "3", "b", "2"), load("a=1\nb=2\na=3\n"));
+    }
+
+    private static void assertEntries(String s, String... keysAndValues) {
+        Map<String, String> expected = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            expected.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        assertEquals(expected, loadJdk(s), "java.util.Properties disagrees on " + s);
+        assertSameAsJdk(s);
+    }
+
+    /**
+     * Checks that both the entries and the keys are the same as what {@link java.util.Properties} finds,
+     * or that both fail.
+     */
+    private static void assertSameAsJdk(String s) {
+        Map<String, String> expected;
+        try {
+            expected = loadJdk(s);
+        } catch (IllegalArgumentException e) {
+            assertThrows(IllegalArgumentException.class, () -> load(s), s);
+            return;
+        }
+        assertEquals(expected, load(s), s);
+        assertEquals(expected.keySet(), PropertiesScanner.keys(buffer(s)), s);
+        assertEquals(expected.size(), PropertiesScanner.count(buffer(s)), s);
+    }
+
+    private static Map<String, String> load(String s) {
+        Map<String, String> entries = new HashMap<>();
+        PropertiesScanner.load(buffer(s), entries::put);
+        return entries;
+    }
+
+    private static List<String> keys(String s) {
+        List<String> keys = new ArrayList<>();
+        PropertiesScanner.scan(buffer(s), keys::add);
+        return keys;
+    }
+
+    private static Map<String, String> loadJdk(String s) {
+        java.util.Properties p = new java.util.Properties();
+        try {
+            p.load(new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, String> entries = new HashMap<>();
+        for (String k : p.stringPropertyNames()) {
+            entries.put(k, p.getProperty(k));
+        }
+        return entries;
+    }
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,129 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PropertiesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void emptyFile() throws IOException {
+        assertSameAsJdk(write(""));
+    }
+
+    @Test
+    void smallFile() throws IOException {
+        File f = write("# comment\na=1\nb = \\u00e9\\\n  t\\u00e9\nc\\:d=\\t2\n");
+        assertSameAsJdk(f);
+        assertEquals("\u00e9t\u00e9", new Properties(f).getProperty("b"));
+    }
+
+    @Test
+    void filesAroundTheMappingThreshold() throws IOException {
+        int threshold = PropertiesScanner.MAP_THRESHOLD;
+        for (int size : new int[] {threshold - 1, threshold, threshold + 1, 4 * threshold + 3}) {
+            File f = write(content(size));
+            assertEquals(size, f.length());
+
+            ByteBuffer buf = PropertiesScanner.read(f);
+            assertEquals(0, buf.position());
+            assertEquals(size, buf.limit());
+            assertEquals(size >= threshold, buf instanceof MappedByteBuffer, "mapped at " + size);
+
+            assertSameAsJdk(f);
+        }
+    }
+
+    @Test
+    void continuationAcrossTheEndOfTheFile() throws IOException {
+        // the last entry ends with a backslash exactly at the last byte, whichever way the file is read
+        int threshold = PropertiesScanner.MAP_THRESHOLD;
+        for (int size : new int[] {threshold - 1, threshold}) {
+            String s = content(size - 1) + "\\";
+            File f = write(s);
+            assertSameAsJdk(f);
+        }
+    }
+
+    @Test
+    void malformedUnicodeEscape() throws IOException {
+        String s = content(PropertiesScanner.MAP_THRESHOLD) + "x=\\u12";
+        File f = write(s);
+        assertThrows(IllegalArgumentException.class, () -> new Properties(f));
+        assertFalse(PropertiesScanner.keys(PropertiesScanner.read(f)).isEmpty());
+    }
+
+    @Test
+    void keysOfALargeFile() throws IOException {
+        File f = write(content(2 * PropertiesScanner.MAP_THRESHOLD));
+        java.util.Properties expected = loadJdk(f);
+        assertEquals(expected.stringPropertyNames(), PropertiesScanner.keys(PropertiesScanner.read(f)));
+        assertEquals(expected.size(), PropertiesScanner.count(PropertiesScanner.read(f)));
+        assertTrue(expected.size() > 1000);
+    }
+
+    /**
+     * Properties of exactly the given size, with continuations, escapes and comments all the way through.
+     */
+    private static String content(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; sb.length() < size; i++) {
+            switch (i % 4) {
+                case 0:
+                    sb.append("key").append(i).append('=').append("value\\u00e9 ").append(i).append('\n');
+                    break;
+                case 1:
+                    sb.append("# comment ").append(i).append(" \\\n");
+                    break;
+                case 2:
+                    sb.append("k\\ ey").append(i).append(" : a\\\r\n    b\\tc\r\n");
+                    break;
+                default:
+                    sb.append("\u00e9").append(i).append("\\=x\n");
+                    break;
+            }
+        }
+        // end on a complete line that can be cut anywhere without leaving a broken escape
+        sb.setLength(size);
+        for (int i = Math.max(0, size - 16); i < size; i++) {
+            sb.setCharAt(i, 'z');
+        }
+        if (size > 0) {
+            sb.setCharAt(Math.max(0, size - 17), '\n');
+        }
+        return sb.toString();
+    }
+
+    private File write(String s) throws IOException {
+        File f = Files.createTempFile(dir, "test", ".properties").toFile();
+        Files.write(f.toPath(), s.getBytes(StandardCharsets.ISO_8859_1));
+        return f;
+    }
+
+    private static void assertSameAsJdk(File f) throws IOException {
+        assertEquals(loadJdk(f), new Properties(f));
+    }
+
+    private static java.util.Properties loadJdk(File f) throws IOException {
+        java.util.Properties p = new java.util.Properties();
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            p.load(in);
+        }
+        return p;
+    }
+}
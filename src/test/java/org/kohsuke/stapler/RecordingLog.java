@@ -0,0 +1,33 @@
+package org.kohsuke.stapler;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Log that keeps the warnings and errors, so that tests can check what was reported.
+ */
+class RecordingLog extends SystemStreamLog {
+    final List<String> warnings = new ArrayList<>();
+    final List<String> errors = new ArrayList<>();
+
+    @Override
+    public void warn(CharSequence content) {
+        warnings.add(content.toString());
+    }
+
+    @Override
+    public void warn(CharSequence content, Throwable error) {
+        warnings.add(content.toString());
+    }
+
+    @Override
+    public void error(CharSequence content) {
+        errors.add(content.toString());
+    }
+
+    @Override
+    public void error(CharSequence content, Throwable error) {
+        errors.add(content.toString());
+    }
+}
@@ -0,0 +1,202 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkEventAttributes;
+import org.apache.maven.doxia.sink.SinkFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReportCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayIsTheSameAsAFreshRender() throws IOException {
+        Output direct = new Output();
+        render(direct.sink("index.html"), direct.factory());
+
+        ReportCache cache = new ReportCache(dir.toFile());
+        Output recorded = new Output();
+        assertFalse(cache.replay("en", "key", recorded.sink("index.html"), recorded.factory()));
+        ReportCache.Recording recording = cache.record(recorded.sink("index.html"), recorded.factory());
+        render(recording.getSink(), recording.getSinkFactory());
+        assertTrue(recording.save("en", "key"));
+        assertEquals(direct.pages.keySet(), recorded.pages.keySet());
+        assertArrayEquals(direct.bytes(), recorded.bytes());
+
+        Output replayed = new Output();
+        assertTrue(cache.replay("en", "key", replayed.sink("index.html"), replayed.factory()));
+        assertEquals(direct.pages.keySet(), replayed.pages.keySet());
+        assertArrayEquals(direct.bytes(), replayed.bytes());
+    }
+
+    @Test
+    void otherKeyOrName() throws IOException {
+        ReportCache cache = new ReportCache(dir.toFile());
+        Output recorded = new Output();
+        ReportCache.Recording recording = cache.record(recorded.sink("index.html"), recorded.factory());
+        render(recording.getSink(), recording.getSinkFactory());
+        assertTrue(recording.save("en", "key"));
+
+        Output replayed = new Output();
+        assertFalse(cache.replay("en", "other", replayed.sink("index.html"), replayed.factory()));
+        assertFalse(cache.replay("ja", "key", replayed.sink("index.html"), replayed.factory()));
+        assertEquals(List.of(), replayed.pages.get("index.html"));
+    }
+
+    @Test
+    void unstorableArguments() throws IOException {
+        ReportCache cache = new ReportCache(dir.toFile());
+        Output recorded = new Output();
+        ReportCache.Recording recording = cache.record(recorded.sink("index.html"), recorded.factory());
+        recording.getSink().text("before");
+        recording.getSinkFactory().createSink(new ByteArrayOutputStream()).text("streamed");
+        recording.getSink().text("after");
+        assertFalse(recording.save("en", "key"));
+        assertFalse(cache.replay("en", "key", recorded.sink("index.html"), recorded.factory()));
+    }
+
+    @Test
+    void nonStringAttributes() throws IOException {
+        ReportCache cache = new ReportCache(dir.toFile());
+        for (Object value : new Object[] {42, Boolean.TRUE, new SimpleAttributeSet(atts("nested", "value"))}) {
+            Output direct = new Output();
+            direct.sink("index.html").section(1, atts("class", value));
+
+            Output recorded = new Output();
+            ReportCache.Recording recording = cache.record(recorded.sink("index.html"), recorded.factory());
+            recording.getSink().section(1, atts("class", value));
+            assertFalse(recording.save("en", "key"), String.valueOf(value));
+            assertArrayEquals(direct.bytes(), recorded.bytes());
+
+            Output replayed = new Output();
+            assertFalse(cache.replay("en", "key", replayed.sink("index.html"), replayed.factory()));
+        }
+
+        // nor can a name that isn't a string, or a resolve parent
+        Attributes named = atts("class", "x");
+        named.addAttribute(1, "one");
+        Attributes child = atts("class", "x");
+        child.setResolveParent(atts("id", "parent"));
+        for (Attributes atts : List.of(named, child)) {
+            ReportCache.Recording recording = cache.record(new Output().sink("index.html"), null);
+            recording.getSink().section(1, atts);
+            assertFalse(recording.save("en", "key"));
+        }
+    }
+
+    private static Attributes atts(Object name, Object value) {
+        Attributes atts = new Attributes();
+        atts.addAttribute(name, value);
+        return atts;
+    }
+
+    /**
+     * Renders a report that reuses and changes its arguments after passing them, like reports commonly do.
+     */
+    private static void render(Sink sink, SinkFactory factory) throws IOException {
+        Attributes atts = new Attributes();
+        atts.addAttribute("class", "first");
+        sink.section(1, atts);
+        atts.addAttribute("class", "second");
+        atts.addAttribute("id", "é€");
+        sink.section(2, atts);
+        atts.removeAttribute("id");
+        sink.section(3, atts);
+        sink.section(4, null);
+
+        int[] justification = {1, 2, 3};
+        sink.tableRows(justification, true);
+        justification[0] = 0;
+        sink.tableRows(justification, false);
+
+        Sink page = factory.createSink(new File("site"), "page.html");
+        page.text("Page");
+        sink.text("Index\n\u0000" + "x".repeat(70_000));
+        page.close();
+        sink.flush();
+    }
+
+    /**
+     * Attribute set of the type the sink methods take.
+     */
+    private static final class Attributes extends SimpleAttributeSet implements SinkEventAttributes {}
+
+    /**
+     * Sinks that write down every call they receive, with the arguments as they were at the time of the call.
+     */
+    private static final class Output {
+        final Map<String, List<String>> pages = new TreeMap<>();
+
+        Sink sink(String name) {
+            List<String> page = pages.computeIfAbsent(name, n -> new ArrayList<>());
+            return (Sink)
+                    Proxy.newProxyInstance(Sink.class.getClassLoader(), new Class<?>[] {Sink.class}, (p, m, a) -> {
+                        StringBuilder call = new StringBuilder(m.getName());
+                        for (Object arg : a != null ? a : new Object[0]) {
+                            call.append(' ').append(format(arg));
+                        }
+                        page.add(call.toString());
+                        return null;
+                    });
+        }
+
+        SinkFactory factory() {
+            return new SinkFactory() {
+                @Override
+                public Sink createSink(File outputDir, String outputName) {
+                    return sink(outputDir.getName() + "/" + outputName);
+                }
+
+                @Override
+                public Sink createSink(OutputStream out) {
+                    return sink("stream");
+                }
+            };
+        }
+
+        byte[] bytes() {
+            return pages.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Formats an argument along with the types of what's in it, so that a replay that passes
+         * something different is told apart.
+         */
+        private static String format(Object arg) {
+            if (arg instanceof int[]) {
+                return Arrays.toString((int[]) arg);
+            }
+            if (arg instanceof AttributeSet) {
+                AttributeSet atts = (AttributeSet) arg;
+                Map<String, String> values = new TreeMap<>();
+                for (Object name : Collections.list(atts.getAttributeNames())) {
+                    values.put(format(name), format(atts.getAttribute(name)));
+                }
+                return values.toString();
+            }
+            return arg != null ? arg.getClass().getSimpleName() + ":" + arg : "null";
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TagFileCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<File> parsed = new ArrayList<>();
+
+    private final RecordingLog log = new RecordingLog();
+
+    @Test
+    void roundTrip() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        File b = tagFile("b.jelly", "<j:jelly><st:documentation/></j:jelly>");
+        File cacheFile = dir.resolve("target/cache.bin").toFile();
+
+        TagFileCache cache = TagFileCache.load(cacheFile, log);
+        TagDescriptor tagA = cache.get(a, this::parse);
+        cache.get(b, this::parse);
+        assertEquals(List.of(a, b), parsed);
+        cache.save(cacheFile);
+
+        parsed.clear();
+        cache = TagFileCache.load(cacheFile, log);
+        assertSameTag(tagA, cache.get(a, this::parse));
+        cache.get(b, this::parse);
+        assertEquals(List.of(), parsed);
+        assertEquals(2, cache.getHits());
+        assertEquals(List.of(), log.warnings);
+    }
+
+    @Test
+    void changedFiles() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        File b = tagFile("b.jelly", "<j:jelly/>");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        TagFileCache cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, this::parse);
+        cache.get(b, this::parse);
+        cache.save(cacheFile);
+
+        // touched but the same content is still a hit, and a changed content isn't
+        assertTrue(a.setLastModified(a.lastModified() + 10_000));
+        Files.writeString(b.toPath(), "<j:jelly>changed</j:jelly>");
+        parsed.clear();
+        cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, this::parse);
+        cache.get(b, this::parse);
+        assertEquals(List.of(b), parsed);
+        cache.save(cacheFile);
+
+        // only the tag files looked up are saved
+        parsed.clear();
+        cache = TagFileCache.load(cacheFile, log);
+        cache.get(b, this::parse);
+        cache.save(cacheFile);
+        cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, this::parse);
+        cache.get(b, this::parse);
+        assertEquals(List.of(a), parsed);
+    }
+
+    @Test
+    void truncated() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        TagFileCache cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, this::parse);
+        cache.save(cacheFile);
+        byte[] data = Files.readAllBytes(cacheFile.toPath());
+
+        for (int length = 0; length < data.length; length++) {
+            Files.write(cacheFile.toPath(), Arrays.copyOf(data, length));
+            parsed.clear();
+            log.warnings.clear();
+            TagFileCache.load(cacheFile, log).get(a, this::parse);
+            assertEquals(List.of(a), parsed, "truncated to " + length);
+            assertEquals(1, log.warnings.size(), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void corruptedLengths() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        TagFileCache cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, this::parse);
+        cache.save(cacheFile);
+        byte[] data = Files.readAllBytes(cacheFile.toPath());
+
+        // version, entry count, then the length of the path
+        for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+            ByteBuffer.wrap(data).putInt(8, length);
+            Files.write(cacheFile.toPath(), data);
+            parsed.clear();
+            TagFileCache.load(cacheFile, log).get(a, this::parse);
+            assertEquals(List.of(a), parsed);
+        }
+    }
+
+    @Test
+    void otherVersion() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        TagFileCache cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, this::parse);
+        cache.save(cacheFile);
+        byte[] data = Files.readAllBytes(cacheFile.toPath());
+        ByteBuffer.wrap(data).putInt(0, ByteBuffer.wrap(data).getInt(0) + 1);
+        Files.write(cacheFile.toPath(), data);
+
+        parsed.clear();
+        TagFileCache.load(cacheFile, log).get(a, this::parse);
+        assertEquals(List.of(a), parsed);
+        assertEquals(List.of(), log.warnings);
+    }
+
+    @Test
+    void fingerprint() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        Fingerprint fp = Fingerprint.of(a, null);
+        assertEquals(a.length(), fp.size);
+        assertEquals(32, fp.digest.length);
+        assertTrue(fp == Fingerprint.of(a, fp), "an untouched file isn't hashed again");
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        fp.writeTo(new DataOutputStream(buf));
+        byte[] data = buf.toByteArray();
+        Fingerprint read = Fingerprint.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+        assertEquals(fp.size, read.size);
+        assertEquals(fp.lastModified, read.lastModified);
+        assertArrayEquals(fp.digest, read.digest);
+        assertTrue(fp.sameContent(read));
+
+        // size, timestamp, then the length of the digest
+        for (int length : new int[] {-1, 33, Integer.MAX_VALUE}) {
+            ByteBuffer.wrap(data).putInt(16, length);
+            assertThrows(
+                    IOException.class,
+                    () -> Fingerprint.readFrom(new DataInputStream(new ByteArrayInputStream(data))));
+        }
+    }
+
+    @Test
+    void longDocumentation() throws IOException {
+        File a = tagFile("a.jelly", "<j:jelly/>");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        String doc = "é€".repeat(50_000);
+        TagDescriptor tag = new TagDescriptor(
+                "a",
+                doc,
+                true,
+                List.of(new TagDescriptor.AttributeDescriptor(Map.of("name", "x"), doc)));
+        TagFileCache cache = TagFileCache.load(cacheFile, log);
+        cache.get(a, f -> tag);
+        cache.save(cacheFile);
+        assertSameTag(tag, TagFileCache.load(cacheFile, log).get(a, this::parse));
+        assertEquals(List.of(), parsed);
+    }
+
+    private File tagFile(String name, String content) throws IOException {
+        Path p = dir.resolve(name);
+        Files.writeString(p, content);
+        return p.toFile();
+    }
+
+    private TagDescriptor parse(File f) {
+        parsed.add(f);
+        return new TagDescriptor(
+                f.getName().replace(".jelly", ""),
+                "Documentation of " + f.getName(),
+                false,
+                List.of(new TagDescriptor.AttributeDescriptor(Map.of("name", "field", "use", "required"), "Field")));
+    }
+
+    private static void assertSameTag(TagDescriptor expected, TagDescriptor actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.doc, actual.doc);
+        assertEquals(expected.noContent, actual.noContent);
+        assertEquals(expected.attributes.size(), actual.attributes.size());
+        for (int i = 0; i < expected.attributes.size(); i++) {
+            assertEquals(expected.attributes.get(i).attributes, actual.attributes.get(i).attributes);
+            assertEquals(expected.attributes.get(i).doc, actual.attributes.get(i).doc);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.kohsuke.stapler.TestProject.contents;
+import static org.kohsuke.stapler.TestProject.helper;
+import static org.kohsuke.stapler.TestProject.project;
+import static org.kohsuke.stapler.TestProject.write;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TaglibDocMojoTest {
+
+    @TempDir
+    Path dir;
+
+    private final RecordingLog log = new RecordingLog();
+
+    @Test
+    void sameForAnyNumberOfThreads() throws Exception {
+        Path serial = fixture("serial");
+        Path parallel = fixture("parallel");
+        run(serial, 1);
+        run(parallel, 8);
+
+        Map<String, String> expected = contents(serial);
+        String taglib = expected.get("target/taglib.xml");
+        assertTrue(taglib.contains("tag15"), taglib);
+        assertTrue(taglib.indexOf("tag04") < taglib.indexOf("tag05"), taglib);
+        assertEquals(expected, contents(parallel));
+        assertEquals(List.of(), log.errors);
+    }
+
+    /**
+     * Creates three tag libraries of tag files of very different sizes, so that they take
+     * different times to parse.
+     */
+    private Path fixture(String name) throws IOException {
+        Path base = dir.resolve(name);
+        Path res = base.resolve("src/main/resources");
+        for (String lib : List.of("form", "layout", "task")) {
+            write(res.resolve("lib/" + lib + "/taglib"), lib);
+            for (int i = 0; i < 20; i++) {
+                StringBuilder doc = new StringBuilder("<st:documentation>Tag " + i);
+                for (int j = 0; j < (i * 7) % 20; j++) {
+                    doc.append("<st:attribute name='a").append(j).append("'>Attribute ").append(j);
+                    doc.append(" ").append("x".repeat(i * 100)).append("</st:attribute>");
+                }
+                doc.append("</st:documentation>");
+                write(
+                        res.resolve(String.format("lib/%s/tag%02d.jelly", lib, i)),
+                        "<j:jelly xmlns:j='jelly:core' xmlns:st='jelly:stapler' xmlns:d='jelly:define'>" + doc
+                                + (i % 3 == 0 ? "<d:invokeBody/>" : "") + "</j:jelly>");
+            }
+        }
+        write(base.resolve("pom.xml"), "<project/>");
+        return base;
+    }
+
+    private void run(Path base, int threads) throws MojoExecutionException {
+        TaglibDocMojo mojo = new TaglibDocMojo();
+        mojo.setLog(log);
+        mojo.project = project(base);
+        mojo.helper = helper();
+        mojo.threads = threads;
+        mojo.execute();
+    }
+}
@@ -0,0 +1,164 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TaglibIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        byte[] data = write(
+                library(
+                        "/lib/form",
+                        tag("textbox", false, attribute("field", null), attribute("value", "required")),
+                        tag("entry", true)),
+                library("/lib/layout", tag("layout", false, attribute("title", "optional"))));
+        TaglibIndex index = TaglibIndex.wrap(ByteBuffer.wrap(data));
+        assertEquals(3, index.size());
+
+        TaglibIndex.Entry e = index.find("/lib/form", "textbox");
+        assertEquals("/lib/form", e.getLibraryUri());
+        assertEquals("textbox", e.getName());
+        assertFalse(e.isNoContent());
+        assertEquals(List.of("field", "value"), e.getAttributes());
+        assertTrue(e.isRequired("value"));
+        assertFalse(e.isRequired("field"));
+        assertFalse(e.isRequired("unknown"));
+
+        e = index.find("/lib/form", "entry");
+        assertTrue(e.isNoContent());
+        assertEquals(List.of(), e.getAttributes());
+
+        e = index.find("/lib/layout", "layout");
+        assertEquals(List.of("title"), e.getAttributes());
+        assertFalse(e.isRequired("title"));
+
+        assertNull(index.find("/lib/form", "layout"));
+        assertNull(index.find("/lib/layout", "textbox"));
+        assertNull(index.find("/lib/none", "entry"));
+
+        File f = dir.resolve("taglib.idx").toFile();
+        Files.write(f.toPath(), data);
+        assertEquals(List.of("title"), TaglibIndex.open(f).find("/lib/layout", "layout").getAttributes());
+    }
+
+    @Test
+    void nonAsciiNames() throws IOException {
+        TaglibIndex index = TaglibIndex.wrap(ByteBuffer.wrap(write(
+                library("/lib/é", tag("z", false), tag("été", false), tag("€", false)))));
+        for (String name : new String[] {"z", "été", "€"}) {
+            assertEquals(name, index.find("/lib/é", name).getName());
+        }
+    }
+
+    @Test
+    void firstLibraryWins() throws IOException {
+        TaglibIndex index = TaglibIndex.wrap(ByteBuffer.wrap(write(
+                library("/lib/form", tag("entry", true)), library("/lib/form", tag("entry", false)))));
+        assertEquals(1, index.size());
+        assertTrue(index.find("/lib/form", "entry").isNoContent());
+    }
+
+    @Test
+    void empty() throws IOException {
+        TaglibIndex index = TaglibIndex.wrap(ByteBuffer.wrap(write()));
+        assertEquals(0, index.size());
+        assertNull(index.find("/lib/form", "entry"));
+    }
+
+    @Test
+    void truncated() throws IOException {
+        byte[] data = write(
+                library("/lib/form", tag("textbox", false, attribute("field", null)), tag("entry", true)));
+        for (int length = 0; length < data.length; length++) {
+            ByteBuffer buf = ByteBuffer.wrap(Arrays.copyOf(data, length));
+            assertThrows(IOException.class, () -> TaglibIndex.wrap(buf), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void corruptedAttributeTable() throws IOException {
+        byte[] data = write(library(
+                "/lib/form",
+                tag("entry", true),
+                tag("select", false),
+                tag("textbox", false, attribute("field", null))));
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int strings = 12 + (buf.getInt(8) + 1) * 4;
+        int tags = strings + buf.getInt(strings - 4) + 4;
+        int attributes = tags + buf.getInt(tags - 4) * 16;
+        // every tag but the last, whose table isn't the one that ends the file
+        for (int i = 0; i < 2; i++) {
+            int offset = tags + i * 16 + 12;
+            int saved = buf.getInt(offset);
+            for (int bad : new int[] {-1, data.length - attributes, data.length, Integer.MAX_VALUE}) {
+                buf.putInt(offset, bad);
+                assertThrows(IOException.class, () -> TaglibIndex.wrap(buf), "offset " + bad + " of tag " + i);
+            }
+            buf.putInt(offset, saved);
+
+            int count = attributes + saved;
+            for (int bad : new int[] {-1, 100, Integer.MAX_VALUE}) {
+                buf.putInt(count, bad);
+                assertThrows(IOException.class, () -> TaglibIndex.wrap(buf), "count " + bad + " of tag " + i);
+            }
+            buf.putInt(count, 0);
+        }
+        assertEquals(List.of("field"), TaglibIndex.wrap(buf).find("/lib/form", "textbox").getAttributes());
+    }
+
+    @Test
+    void otherVersion() throws IOException {
+        byte[] data = write(library("/lib/form", tag("entry", true)));
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(4, buf.getInt(4) + 1);
+        assertThrows(IOException.class, () -> TaglibIndex.wrap(buf));
+
+        buf.putInt(4, buf.getInt(4) - 1);
+        TaglibIndex.wrap(buf);
+        buf.putInt(0, 0);
+        assertThrows(IOException.class, () -> TaglibIndex.wrap(buf));
+    }
+
+    private static byte[] write(TaglibDocMojo.TagLibrary... libs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaglibIndex.write(Arrays.asList(libs), out);
+        return out.toByteArray();
+    }
+
+    private TaglibDocMojo.TagLibrary library(String uri, TagDescriptor... tags) throws IOException {
+        File d = Files.createTempDirectory(dir, "lib").toFile();
+        Files.writeString(d.toPath().resolve("taglib"), uri);
+        TaglibDocMojo.TagLibrary lib = new TaglibDocMojo.TagLibrary(d, uri, new ArrayList<>());
+        lib.tags = Arrays.asList(tags);
+        return lib;
+    }
+
+    private static TagDescriptor tag(String name, boolean noContent, TagDescriptor.AttributeDescriptor... attributes) {
+        return new TagDescriptor(name, "Documentation of " + name, noContent, Arrays.asList(attributes));
+    }
+
+    private static TagDescriptor.AttributeDescriptor attribute(String name, String use) {
+        return new TagDescriptor.AttributeDescriptor(
+                use != null ? Map.of("name", name, "use", use) : Map.of("name", name), "Documentation of " + name);
+    }
+}
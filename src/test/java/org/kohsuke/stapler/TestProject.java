@@ -0,0 +1,74 @@
+package org.kohsuke.stapler;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.apache.maven.model.Resource;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+/**
+ * Builds projects on disk for the tests that run the goals, and reads back what they wrote.
+ */
+final class TestProject {
+    private TestProject() {}
+
+    /**
+     * Project whose POM and only resource directory are in the given directory,
+     * as {@code pom.xml} and {@code src/main/resources}.
+     */
+    static MavenProject project(Path base) {
+        MavenProject project = new MavenProject();
+        project.setFile(base.resolve("pom.xml").toFile());
+        Resource res = new Resource();
+        res.setDirectory(base.resolve("src/main/resources").toString());
+        project.addResource(res);
+        return project;
+    }
+
+    /**
+     * Helper that ignores the attached artifacts.
+     */
+    static MavenProjectHelper helper() {
+        return (MavenProjectHelper) Proxy.newProxyInstance(
+                MavenProjectHelper.class.getClassLoader(), new Class<?>[] {MavenProjectHelper.class}, (p, m, a) -> {
+                    switch (m.getName()) {
+                        case "equals":
+                            return p == a[0];
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        case "toString":
+                            return "helper";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    static void write(Path p, String content) throws IOException {
+        Files.createDirectories(p.getParent());
+        Files.writeString(p, content);
+    }
+
+    /**
+     * Reads all the files under the given directory, keyed by their relative paths.
+     * The caches are left out, as they have absolute paths and timestamps in them.
+     */
+    static Map<String, String> contents(Path base) throws IOException {
+        Map<String, String> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(base)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(p) && !p.toString().endsWith(".bin")) {
+                    String content = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+                    contents.put(base.relativize(p).toString().replace('\\', '/'), content);
+                }
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,166 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class UriFilterTest {
+
+    @Test
+    void literalPrefix() {
+        assertEquals("/lib/hudson", UriFilter.literalPrefix("/lib/hudson"));
+        assertEquals("/lib/hudson", UriFilter.literalPrefix("/lib/hudson.*"));
+        assertEquals("/lib/", UriFilter.literalPrefix("/lib/[a-z]+"));
+        assertEquals("/lib/", UriFilter.literalPrefix("/lib/\\w+"));
+        // the character before a quantifier is optional
+        assertEquals("/lib/hudso", UriFilter.literalPrefix("/lib/hudson?"));
+        assertEquals("/lib/hudso", UriFilter.literalPrefix("/lib/hudson*"));
+        assertEquals("/lib/hudso", UriFilter.literalPrefix("/lib/hudson{0,1}"));
+        assertEquals("/lib/hudson", UriFilter.literalPrefix("/lib/hudson+"));
+    }
+
+    @Test
+    void noLiteralPrefix() {
+        assertEquals("", UriFilter.literalPrefix(".*"));
+        assertEquals("", UriFilter.literalPrefix("(/lib|/foo)/.*"));
+        assertEquals("", UriFilter.literalPrefix("/lib/a|/lib/b"));
+        // an alternation gives up even when it's in a group after a literal part
+        assertEquals("", UriFilter.literalPrefix("/lib/(form|layout)"));
+        assertEquals("", UriFilter.literalPrefix("[/]lib"));
+        assertEquals("", UriFilter.literalPrefix("^/lib"));
+        assertEquals("", UriFilter.literalPrefix("/?lib"));
+
+        UriFilter f = filter("(/lib|/foo)/.*");
+        assertTrue(f.matches("/lib/form"));
+        assertTrue(f.matches("/foo/bar"));
+        assertFalse(f.matches("/bar/foo"));
+        for (String uri : new String[] {"", "/bar", "/lib", "/lib/form"}) {
+            assertTrue(f.mayMatchWithin(uri), uri);
+        }
+    }
+
+    @Test
+    void globToRegex() {
+        assertEquals(Pattern.quote("/lib/form"), UriFilter.globToRegex("/lib/form"));
+        assertEquals(Pattern.quote("/lib/") + "[^/]*", UriFilter.globToRegex("/lib/*"));
+        assertEquals(Pattern.quote("/lib/") + ".*", UriFilter.globToRegex("/lib/**"));
+        assertEquals(Pattern.quote("/lib/f") + "[^/]" + Pattern.quote("rm"), UriFilter.globToRegex("/lib/f?rm"));
+        assertEquals(".*" + Pattern.quote("/form"), UriFilter.globToRegex("**/form"));
+
+        UriFilter f = filter("glob:/lib/*");
+        assertTrue(f.matches("/lib/form"));
+        assertTrue(f.matches("/lib/"));
+        assertFalse(f.matches("/lib/form/nested"));
+        assertFalse(f.matches("/lib"));
+
+        f = filter("glob:/lib/**");
+        assertTrue(f.matches("/lib/form"));
+        assertTrue(f.matches("/lib/form/nested"));
+        assertFalse(f.matches("/library"));
+
+        // regular expression characters in a glob are literals
+        f = filter("glob:/lib/a.b+(c)");
+        assertTrue(f.matches("/lib/a.b+(c)"));
+        assertFalse(f.matches("/lib/axbb(c)"));
+    }
+
+    @Test
+    void includesAndExcludes() {
+        UriFilter f = new UriFilter(null, null);
+        assertTrue(f.matches("/lib/form"));
+        assertTrue(f.mayMatchWithin("/anything"));
+
+        f = new UriFilter(new String[] {"/lib/hudson.*", "glob:/lib/form"}, new String[] {"/lib/hudson/internal"});
+        assertTrue(f.matches("/lib/hudson"));
+        assertTrue(f.matches("/lib/hudson/project"));
+        assertTrue(f.matches("/lib/form"));
+        assertFalse(f.matches("/lib/hudson/internal"));
+        assertTrue(f.matches("/lib/hudson/internal/nested"));
+        assertFalse(f.matches("/lib/layout"));
+
+        f = new UriFilter(new String[0], new String[] {"prefix:/lib/test", "glob:/lib/*/internal"});
+        assertTrue(f.matches("/lib/form"));
+        assertFalse(f.matches("/lib/test"));
+        assertFalse(f.matches("/lib/tests/more"));
+        assertFalse(f.matches("/lib/form/internal"));
+        assertTrue(f.matches("/lib/form/internal/nested"));
+    }
+
+    @Test
+    void pruning() {
+        UriFilter f = new UriFilter(new String[] {"/lib/hudson/.*"}, new String[] {"prefix:/lib/hudson/test"});
+        assertTrue(f.mayMatchWithin(""));
+        assertTrue(f.mayMatchWithin("/lib"));
+        assertTrue(f.mayMatchWithin("/lib/hudson"));
+        assertTrue(f.mayMatchWithin("/lib/hudson/project"));
+        assertFalse(f.mayMatchWithin("/lib/form"));
+        assertFalse(f.mayMatchWithin("/li"));
+        assertFalse(f.mayMatchWithin("/lib/hudson/test"));
+        assertFalse(f.mayMatchWithin("/lib/hudson/test/nested"));
+
+        // only excludes that cover everything below prune
+        f = new UriFilter(null, new String[] {"/lib/hudson", "glob:/lib/form/*", "/lib/layout.*"});
+        assertTrue(f.mayMatchWithin("/lib/hudson"));
+        assertTrue(f.mayMatchWithin("/lib/form"));
+        assertFalse(f.mayMatchWithin("/lib/layout"));
+        assertFalse(f.mayMatchWithin("/lib/layouts"));
+    }
+
+    @Test
+    void pruningNeverSkipsAMatch() {
+        List<String> uris = new ArrayList<>();
+        uris.add("");
+        for (String a : new String[] {"lib", "libs", "foo"}) {
+            uris.add("/" + a);
+            for (String b : new String[] {"hudson", "form", "test", "x.y"}) {
+                uris.add("/" + a + "/" + b);
+                for (String c : new String[] {"internal", "project", "test"}) {
+                    uris.add("/" + a + "/" + b + "/" + c);
+                }
+            }
+        }
+        String[][] patterns = {
+            {"/lib/hudson.*"},
+            {"/lib/hudson/.*"},
+            {"/lib/hudson"},
+            {"/libs?/form"},
+            {"/lib/(form|test)"},
+            {"(/lib|/foo)/.*"},
+            {".*/internal"},
+            {"/lib/x.y.*"},
+            {"glob:/lib/*"},
+            {"glob:/lib/**"},
+            {"glob:/*/form/*"},
+            {"glob:/lib/h?dson/**"},
+            {"prefix:/lib/hud"},
+            {"prefix:/lib/hudson/"},
+        };
+        for (String[] includes : patterns) {
+            for (String[] excludes : patterns) {
+                for (UriFilter f : new UriFilter[] {
+                    new UriFilter(includes, null), new UriFilter(null, excludes), new UriFilter(includes, excludes)
+                }) {
+                    for (String dir : uris) {
+                        if (f.mayMatchWithin(dir)) {
+                            continue;
+                        }
+                        for (String uri : uris) {
+                            if (uri.equals(dir) || uri.startsWith(dir + '/')) {
+                                assertFalse(f.matches(uri), uri + " is below " + dir + " which was pruned");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static UriFilter filter(String include) {
+        return new UriFilter(new String[] {include}, null);
+    }
+}
@@ -0,0 +1,141 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ViewKeyCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<File> parsed = new ArrayList<>();
+
+    private final RecordingLog log = new RecordingLog();
+
+    @Test
+    void roundTrip() throws IOException {
+        File view = file("index.jelly", "<j:jelly>${%Hello} ${%World}</j:jelly>");
+        File resource = file("index_ja.properties", "Hello=Konnichiwa\n");
+        File cacheFile = dir.resolve("target/cache.bin").toFile();
+
+        ViewKeyCache cache = ViewKeyCache.load(cacheFile, log);
+        assertEquals(List.of("Hello", "World"), new ArrayList<>(cache.get(view, this::parse)));
+        assertFalse(cache.isUpToDate(view, "ja", resource));
+        cache.updated(view, "ja", resource);
+        cache.save(cacheFile);
+
+        parsed.clear();
+        cache = ViewKeyCache.load(cacheFile, log);
+        assertEquals(List.of("Hello", "World"), new ArrayList<>(cache.get(view, this::parse)));
+        assertEquals(List.of(), parsed);
+        assertEquals(1, cache.getHits());
+        assertTrue(cache.isUpToDate(view, "ja", resource));
+        assertFalse(cache.isUpToDate(view, "fr", file("index_fr.properties", "")));
+        assertEquals(List.of(), log.warnings);
+    }
+
+    @Test
+    void changedFiles() throws IOException {
+        File view = file("index.jelly", "<j:jelly>${%Hello}</j:jelly>");
+        File resource = file("index_ja.properties", "Hello=Konnichiwa\n");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        ViewKeyCache cache = ViewKeyCache.load(cacheFile, log);
+        cache.get(view, this::parse);
+        cache.updated(view, "ja", resource);
+        cache.save(cacheFile);
+
+        // an edited resource file needs to be looked at again
+        Files.writeString(resource.toPath(), "");
+        cache = ViewKeyCache.load(cacheFile, log);
+        cache.get(view, this::parse);
+        assertFalse(cache.isUpToDate(view, "ja", resource));
+        cache.updated(view, "ja", resource);
+        cache.save(cacheFile);
+
+        // and so does an edited view, whose keys are extracted again
+        Files.writeString(view.toPath(), "<j:jelly>${%Hello} ${%Again}</j:jelly>");
+        parsed.clear();
+        cache = ViewKeyCache.load(cacheFile, log);
+        assertEquals(List.of("Hello", "Again"), new ArrayList<>(cache.get(view, this::parse)));
+        assertEquals(List.of(view), parsed);
+        assertFalse(cache.isUpToDate(view, "ja", resource));
+
+        // a deleted resource file is forgotten
+        Files.delete(resource.toPath());
+        cache.updated(view, "ja", resource);
+        cache.save(cacheFile);
+        cache = ViewKeyCache.load(cacheFile, log);
+        cache.get(view, this::parse);
+        file("index_ja.properties", "");
+        assertFalse(cache.isUpToDate(view, "ja", resource));
+    }
+
+    @Test
+    void truncated() throws IOException {
+        File view = file("index.jelly", "<j:jelly>${%Hello}</j:jelly>");
+        File resource = file("index_ja.properties", "Hello=Konnichiwa\n");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        ViewKeyCache cache = ViewKeyCache.load(cacheFile, log);
+        cache.get(view, this::parse);
+        cache.updated(view, "ja", resource);
+        cache.save(cacheFile);
+        byte[] data = Files.readAllBytes(cacheFile.toPath());
+
+        for (int length = 0; length < data.length; length++) {
+            Files.write(cacheFile.toPath(), Arrays.copyOf(data, length));
+            parsed.clear();
+            log.warnings.clear();
+            cache = ViewKeyCache.load(cacheFile, log);
+            cache.get(view, this::parse);
+            assertEquals(List.of(view), parsed, "truncated to " + length);
+            assertFalse(cache.isUpToDate(view, "ja", resource), "truncated to " + length);
+            assertEquals(1, log.warnings.size(), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void otherVersion() throws IOException {
+        File view = file("index.jelly", "<j:jelly>${%Hello}</j:jelly>");
+        File cacheFile = dir.resolve("cache.bin").toFile();
+        ViewKeyCache cache = ViewKeyCache.load(cacheFile, log);
+        cache.get(view, this::parse);
+        cache.save(cacheFile);
+        byte[] data = Files.readAllBytes(cacheFile.toPath());
+        ByteBuffer.wrap(data).putInt(0, ByteBuffer.wrap(data).getInt(0) + 1);
+        Files.write(cacheFile.toPath(), data);
+
+        parsed.clear();
+        ViewKeyCache.load(cacheFile, log).get(view, this::parse);
+        assertEquals(List.of(view), parsed);
+        assertEquals(List.of(), log.warnings);
+    }
+
+    private File file(String name, String content) throws IOException {
+        Path p = dir.resolve(name);
+        Files.writeString(p, content);
+        return p.toFile();
+    }
+
+    private Set<String> parse(File view) throws IOException {
+        parsed.add(view);
+        Set<String> keys = new LinkedHashSet<>();
+        ExpressionScanner scanner = new ExpressionScanner(keys::add);
+        scanner.scan(Files.readString(view.toPath()));
+        scanner.end();
+        return keys;
+    }
+}
@@ -0,0 +1,274 @@
+package org.kohsuke.stapler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WatchMojoTest {
+
+    @TempDir
+    Path dir;
+
+    private final FakeWatchService watcher = new FakeWatchService();
+
+    private final List<Path> registered = new ArrayList<>();
+
+    /**
+     * Directories that fail to be registered.
+     */
+    private final List<Path> unwatchable = new ArrayList<>();
+
+    private final WatchMojo mojo = new WatchMojo() {
+        @Override
+        void register(Path start) throws IOException {
+            if (unwatchable.contains(start)) {
+                throw new IOException("Gone: " + start);
+            }
+            registered.add(start);
+        }
+    };
+
+    WatchMojoTest() {
+        mojo.watcher = watcher;
+        mojo.setLog(new RecordingLog());
+    }
+
+    @Test
+    void burstIsOneBatch() throws Exception {
+        Path a = dir.resolve("a");
+        Path b = dir.resolve("b");
+        FakeKey ka = watcher.key(a);
+        FakeKey kb = watcher.key(b);
+        mojo.keys.put(ka, a);
+        mojo.keys.put(kb, b);
+        watcher.signal(ka.event(StandardWatchEventKinds.ENTRY_MODIFY, "x.jelly")
+                .event(StandardWatchEventKinds.ENTRY_MODIFY, "y.jelly"));
+        watcher.signal(kb.event(StandardWatchEventKinds.ENTRY_DELETE, "z.properties"));
+        watcher.signal(ka.event(StandardWatchEventKinds.ENTRY_MODIFY, "x.jelly"));
+
+        WatchMojo.Batch batch = mojo.awaitChanges();
+        assertEquals(List.of(a.resolve("x.jelly"), a.resolve("y.jelly"), b.resolve("z.properties")), list(batch));
+        assertFalse(batch.overflow);
+        assertEquals(3, ka.resets + kb.resets);
+    }
+
+    @Test
+    void lostEvents() throws Exception {
+        Path a = dir.resolve("a");
+        FakeKey ka = watcher.key(a);
+        mojo.keys.put(ka, a);
+        watcher.signal(ka.event(StandardWatchEventKinds.OVERFLOW, null));
+        assertTrue(mojo.awaitChanges().overflow);
+
+        // a key we don't know about
+        watcher.signal(watcher.key(dir).event(StandardWatchEventKinds.ENTRY_CREATE, "a"));
+        assertTrue(mojo.awaitChanges().overflow);
+    }
+
+    @Test
+    void invalidKeysAreForgotten() throws Exception {
+        Path a = dir.resolve("a");
+        FakeKey ka = watcher.key(a);
+        ka.valid = false;
+        mojo.keys.put(ka, a);
+        watcher.signal(ka.event(StandardWatchEventKinds.ENTRY_DELETE, "x.jelly"));
+        assertEquals(List.of(a.resolve("x.jelly")), list(mojo.awaitChanges()));
+        assertEquals(Map.of(), mojo.keys);
+    }
+
+    @Test
+    void newDirectory() throws Exception {
+        Path sub = Files.createDirectories(dir.resolve("sub/deeper"));
+        Files.writeString(sub.resolve("x.jelly"), "<j:jelly/>");
+        FakeKey key = watcher.key(dir);
+        mojo.keys.put(key, dir);
+        watcher.signal(key.event(StandardWatchEventKinds.ENTRY_CREATE, "sub"));
+
+        WatchMojo.Batch batch = mojo.awaitChanges();
+        assertEquals(List.of(dir.resolve("sub")), registered);
+        assertTrue(batch.paths.contains(sub.resolve("x.jelly")), batch.paths.toString());
+        assertFalse(batch.overflow);
+
+        // one that can't be watched, typically because it's gone already, asks for a rescan
+        Path gone = Files.createDirectories(dir.resolve("gone"));
+        unwatchable.add(gone);
+        watcher.signal(key.event(StandardWatchEventKinds.ENTRY_CREATE, "gone"));
+        assertTrue(mojo.awaitChanges().overflow);
+    }
+
+    @Test
+    void changedTagFilesAreReloaded() throws IOException {
+        File lib = library("lib/form");
+        File other = library("lib/layout");
+        WatchMojo.Batch batch = new WatchMojo.Batch();
+        batch.paths.add(new File(lib, "a.jelly").toPath());
+        batch.paths.add(new File(other, "b.jelly").toPath());
+        batch.paths.add(new File(lib, "c.jelly").toPath());
+        batch.paths.add(new File(lib, "a_ja.properties").toPath());
+        batch.paths.add(dir.resolve("views/index.jelly"));
+
+        Map<File, Set<File>> changed = mojo.findChangedTagFiles(batch);
+        assertEquals(List.of(lib, other, dir.resolve("views").toFile()), new ArrayList<>(changed.keySet()));
+        assertEquals(List.of(new File(lib, "a.jelly"), new File(lib, "c.jelly")), new ArrayList<>(changed.get(lib)));
+    }
+
+    @Test
+    void changedLibrariesAreRescanned() throws IOException {
+        File lib = library("lib/form");
+        Path jelly = lib.toPath().resolve("a.jelly");
+
+        // the marker file
+        assertNull(mojo.findChangedTagFiles(batch(jelly, lib.toPath().resolve("taglib"))));
+        // a new directory, which may have libraries in it
+        assertNull(mojo.findChangedTagFiles(batch(jelly, Files.createDirectories(dir.resolve("lib/new")))));
+        // a deleted library or parent of one
+        Files.delete(lib.toPath().resolve("taglib"));
+        Files.delete(lib.toPath());
+        assertNull(mojo.findChangedTagFiles(batch(lib.toPath())));
+        assertNull(mojo.findChangedTagFiles(batch(dir.resolve("lib"))));
+        // lost events
+        WatchMojo.Batch overflow = batch(jelly);
+        overflow.overflow = true;
+        assertNull(mojo.findChangedTagFiles(overflow));
+        // but not a deleted file
+        assertEquals(Map.of(), mojo.findChangedTagFiles(batch(dir.resolve("lib/readme.txt"))));
+    }
+
+    private File library(String path) throws IOException {
+        Path d = Files.createDirectories(dir.resolve(path));
+        Files.writeString(d.resolve("taglib"), path);
+        if (mojo.libs == null) {
+            mojo.libs = new ArrayList<>();
+        }
+        mojo.libs.add(new TaglibDocMojo.TagLibrary(d.toFile(), "/" + path, List.of()));
+        return d.toFile();
+    }
+
+    private static WatchMojo.Batch batch(Path... paths) {
+        WatchMojo.Batch batch = new WatchMojo.Batch();
+        batch.paths.addAll(List.of(paths));
+        return batch;
+    }
+
+    private static List<Path> list(WatchMojo.Batch batch) {
+        return new ArrayList<>(batch.paths);
+    }
+
+    /**
+     * Hands out the keys that were signaled, in order, and nothing once they run out.
+     */
+    private static final class FakeWatchService implements WatchService {
+        private final Deque<WatchKey> signaled = new ArrayDeque<>();
+
+        FakeKey key(Path dir) {
+            return new FakeKey(dir);
+        }
+
+        void signal(FakeKey key) {
+            signaled.add(key);
+        }
+
+        @Override
+        public WatchKey poll() {
+            return signaled.poll();
+        }
+
+        @Override
+        public WatchKey poll(long timeout, TimeUnit unit) {
+            return signaled.poll();
+        }
+
+        @Override
+        public WatchKey take() {
+            WatchKey key = signaled.poll();
+            if (key == null) {
+                throw new IllegalStateException("Would block forever");
+            }
+            return key;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static final class FakeKey implements WatchKey {
+        private final Path dir;
+        private final List<WatchEvent<?>> events = new ArrayList<>();
+        boolean valid = true;
+        int resets;
+
+        FakeKey(Path dir) {
+            this.dir = dir;
+        }
+
+        FakeKey event(WatchEvent.Kind<?> kind, String name) {
+            Path context = name != null ? Path.of(name) : null;
+            events.add(new WatchEvent<Path>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Kind<Path> kind() {
+                    return (Kind<Path>) kind;
+                }
+
+                @Override
+                public int count() {
+                    return 1;
+                }
+
+                @Override
+                public Path context() {
+                    return context;
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public List<WatchEvent<?>> pollEvents() {
+            List<WatchEvent<?>> r = new ArrayList<>(events);
+            events.clear();
+            return r;
+        }
+
+        @Override
+        public boolean reset() {
+            resets++;
+            return valid;
+        }
+
+        @Override
+        public void cancel() {
+            valid = false;
+        }
+
+        @Override
+        public Watchable watchable() {
+            return dir;
+        }
+    }
+}